@@ -0,0 +1,359 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.zip.*;
+
+/**
+ * ArchiveLot - Format d'archive des téléchargements en lot (commande MRET)
+ *
+ * Plusieurs fichiers circulent sur une seule connexion de données :
+ * - en-tête : "LOT1" puis un octet d'options (bit 0 : contenu compressé par deflate)
+ * - pour chaque fichier : 'F', longueur du nom (16 bits), nom relatif en UTF-8
+ *   (séparateur '/'), taille (64 bits), puis les octets du fichier
+ * - fin de l'archive : 'E'
+ * Tout ce qui suit l'en-tête est compressé lorsque l'option est présente.
+ * Les entiers sont gros-boutistes, comme dans le reste du protocole.
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public final class ArchiveLot {
+
+    // ==================== CONSTANTES ====================
+
+    /** Signature de début d'archive */
+    private static final byte[] SIGNATURE = {'L', 'O', 'T', '1'};
+
+    /** Option : contenu compressé par deflate */
+    private static final int OPTION_COMPRESSION = 0x01;
+
+    /** Type d'entrée : fichier */
+    private static final int TYPE_FICHIER = 'F';
+
+    /** Type d'entrée : fin de l'archive */
+    private static final int TYPE_FIN = 'E';
+
+    /** Longueur maximale d'un nom encodé */
+    private static final int LONGUEUR_MAX_NOM = 0xFFFF;
+
+    /** Taille du tampon de copie */
+    private static final int TAILLE_TAMPON = 64 * 1024;
+
+    private ArchiveLot() {
+        // Classe utilitaire
+    }
+
+    // ==================== ÉCRITURE ====================
+
+    /**
+     * Écriture d'une archive sur un canal
+     * Sans compression, le contenu des fichiers passe par FileChannel.transferTo.
+     * Le canal n'est jamais fermé : terminer() écrit la fin de l'archive,
+     * close() libère le compresseur (y compris après une erreur).
+     */
+    public static final class Ecrivain implements Closeable {
+
+        /** Canal de la connexion de données */
+        private final WritableByteChannel canal;
+
+        /** Compresseur (null sans compression) */
+        private final Deflater compresseur;
+
+        /** Flux compressé écrivant sur le canal (null sans compression) */
+        private final DeflaterOutputStream fluxCompresse;
+
+        /** Envoi des fichiers par transferTo (sinon copie par tampon) */
+        private final boolean zeroCopie;
+
+        /** En-tête d'entrée réutilisé d'un fichier à l'autre */
+        private final ByteBuffer enTete = ByteBuffer.allocate(1 + 2 + LONGUEUR_MAX_NOM + 8);
+
+        /**
+         * Tampon de copie, obtenu au premier besoin : direct et pris dans le pool pour un envoi
+         * sans transferTo, sur le tas avec compression (DeflaterOutputStream lit un tableau)
+         */
+        private ByteBuffer tampon;
+
+        /**
+         * Crée une archive et écrit son en-tête
+         *
+         * @param canal Canal de la connexion de données
+         * @param compresse Compresser le contenu par deflate
+         * @param zeroCopie Envoyer les fichiers par transferTo lorsque c'est possible
+         * @throws IOException Si erreur d'écriture
+         */
+        public Ecrivain(WritableByteChannel canal, boolean compresse, boolean zeroCopie) throws IOException {
+            this.canal = canal;
+            this.zeroCopie = zeroCopie;
+
+            ByteBuffer signature = ByteBuffer.allocate(SIGNATURE.length + 1);
+            signature.put(SIGNATURE).put((byte) (compresse ? OPTION_COMPRESSION : 0)).flip();
+            ecrireTout(signature);
+
+            if (compresse) {
+                compresseur = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                fluxCompresse = new DeflaterOutputStream(new SortieCanal(canal), compresseur, TAILLE_TAMPON);
+            } else {
+                compresseur = null;
+                fluxCompresse = null;
+            }
+        }
+
+        /**
+         * Ajoute un fichier à l'archive
+         *
+         * @param nom Nom relatif du fichier dans l'archive (séparateur '/')
+         * @param fichier Chemin du fichier
+         * @param taille Taille annoncée du fichier
+         * @return Nombre d'octets du fichier envoyés
+         * @throws IOException Si erreur de lecture ou d'écriture, ou fichier tronqué
+         */
+        public long ajouterFichier(String nom, Path fichier, long taille) throws IOException {
+            byte[] nomEncode = nom.getBytes(StandardCharsets.UTF_8);
+            if (nomEncode.length > LONGUEUR_MAX_NOM) {
+                throw new IOException("nom trop long : " + nom);
+            }
+            enTete.clear();
+            enTete.put((byte) TYPE_FICHIER).putShort((short) nomEncode.length).put(nomEncode).putLong(taille);
+            enTete.flip();
+            ecrire(enTete);
+
+            try (FileChannel canalFichier = FileChannel.open(fichier, StandardOpenOption.READ)) {
+                if (fluxCompresse == null && zeroCopie) {
+                    long position = 0;
+                    while (position < taille) {
+                        long transferes = canalFichier.transferTo(position, taille - position, canal);
+                        if (transferes <= 0) {
+                            throw new EOFException("fichier tronqué pendant le transfert : " + nom);
+                        }
+                        position += transferes;
+                    }
+                    return taille;
+                }
+
+                if (tampon == null) {
+                    tampon = fluxCompresse != null ? ByteBuffer.allocate(TAILLE_TAMPON) : PoolTampons.acquerir(TAILLE_TAMPON);
+                }
+                long position = 0;
+                while (position < taille) {
+                    tampon.clear();
+                    tampon.limit((int) Math.min(tampon.capacity(), taille - position));
+                    int lus = canalFichier.read(tampon, position);
+                    if (lus < 0) {
+                        throw new EOFException("fichier tronqué pendant le transfert : " + nom);
+                    }
+                    tampon.flip();
+                    ecrire(tampon);
+                    position += lus;
+                }
+                return taille;
+            }
+        }
+
+        /**
+         * Écrit la fin de l'archive et termine la compression
+         *
+         * @throws IOException Si erreur d'écriture
+         */
+        public void terminer() throws IOException {
+            ByteBuffer fin = ByteBuffer.allocate(1);
+            fin.put((byte) TYPE_FIN).flip();
+            ecrire(fin);
+            if (fluxCompresse != null) {
+                fluxCompresse.finish();
+                fluxCompresse.flush();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (compresseur != null) {
+                compresseur.end();
+            }
+            if (tampon != null && tampon.isDirect()) {
+                PoolTampons.liberer(tampon);
+            }
+            tampon = null;
+        }
+
+        /**
+         * Écrit un tampon, compressé ou non
+         *
+         * @param source Tampon à écrire
+         * @throws IOException Si erreur d'écriture
+         */
+        private void ecrire(ByteBuffer source) throws IOException {
+            if (fluxCompresse == null) {
+                ecrireTout(source);
+                return;
+            }
+            fluxCompresse.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+            source.position(source.limit());
+        }
+
+        /**
+         * Écrit intégralement un tampon sur le canal
+         *
+         * @param source Tampon à écrire
+         * @throws IOException Si erreur d'écriture
+         */
+        private void ecrireTout(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                canal.write(source);
+            }
+        }
+    }
+
+    /**
+     * Flux d'écriture sur un canal, qui ne ferme pas le canal
+     */
+    private static final class SortieCanal extends OutputStream {
+
+        /** Canal de destination */
+        private final WritableByteChannel canal;
+
+        /**
+         * @param canal Canal de destination
+         */
+        SortieCanal(WritableByteChannel canal) {
+            this.canal = canal;
+        }
+
+        @Override
+        public void write(int octet) throws IOException {
+            write(new byte[] {(byte) octet}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] octets, int debut, int longueur) throws IOException {
+            ByteBuffer source = ByteBuffer.wrap(octets, debut, longueur);
+            while (source.hasRemaining()) {
+                canal.write(source);
+            }
+        }
+    }
+
+    // ==================== LECTURE ====================
+
+    /**
+     * Lecture d'une archive au fil de l'eau
+     * suivant() passe à l'entrée suivante ; contenu() lit les octets du fichier courant.
+     * Le flux sous-jacent n'est pas fermé.
+     */
+    public static final class Lecteur {
+
+        /** Flux de l'archive (décompressé si besoin) */
+        private final DataInputStream flux;
+
+        /** Décompresseur (null sans compression) */
+        private final Inflater decompresseur;
+
+        /** Nom du fichier courant */
+        private String nom;
+
+        /** Taille du fichier courant */
+        private long taille;
+
+        /** Octets du fichier courant restant à lire */
+        private long restant;
+
+        /**
+         * Lit l'en-tête de l'archive
+         *
+         * @param entree Flux de la connexion de données
+         * @throws IOException Si le flux n'est pas une archive
+         */
+        public Lecteur(InputStream entree) throws IOException {
+            DataInputStream brut = new DataInputStream(entree);
+            byte[] signature = new byte[SIGNATURE.length];
+            brut.readFully(signature);
+            if (!Arrays.equals(signature, SIGNATURE)) {
+                throw new IOException("format d'archive inconnu");
+            }
+            int options = brut.readUnsignedByte();
+            if ((options & OPTION_COMPRESSION) != 0) {
+                decompresseur = new Inflater();
+                flux = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(entree, decompresseur, TAILLE_TAMPON), TAILLE_TAMPON));
+            } else {
+                decompresseur = null;
+                flux = brut;
+            }
+        }
+
+        /**
+         * Passe au fichier suivant (le reste du fichier courant est ignoré)
+         *
+         * @return true si un fichier suit, false à la fin de l'archive
+         * @throws IOException Si erreur de lecture ou archive invalide
+         */
+        public boolean suivant() throws IOException {
+            while (restant > 0) {
+                long ignores = flux.skip(restant);
+                if (ignores <= 0) {
+                    throw new EOFException("archive tronquée");
+                }
+                restant -= ignores;
+            }
+
+            int type = flux.readUnsignedByte();
+            if (type == TYPE_FIN) {
+                if (decompresseur != null) {
+                    decompresseur.end();
+                }
+                return false;
+            }
+            if (type != TYPE_FICHIER) {
+                throw new IOException("entrée d'archive invalide : " + type);
+            }
+            byte[] nomEncode = new byte[flux.readUnsignedShort()];
+            flux.readFully(nomEncode);
+            nom = new String(nomEncode, StandardCharsets.UTF_8);
+            taille = flux.readLong();
+            if (taille < 0) {
+                throw new IOException("taille invalide pour " + nom);
+            }
+            restant = taille;
+            return true;
+        }
+
+        /**
+         * Nom relatif du fichier courant
+         *
+         * @return Nom (séparateur '/')
+         */
+        public String nom() {
+            return nom;
+        }
+
+        /**
+         * Taille du fichier courant
+         *
+         * @return Taille en octets
+         */
+        public long taille() {
+            return taille;
+        }
+
+        /**
+         * Copie le contenu du fichier courant
+         *
+         * @param sortie Destination
+         * @throws IOException Si erreur de lecture ou d'écriture
+         */
+        public void copierVers(OutputStream sortie) throws IOException {
+            byte[] tampon = new byte[(int) Math.min(TAILLE_TAMPON, Math.max(restant, 1))];
+            while (restant > 0) {
+                int lus = flux.read(tampon, 0, (int) Math.min(tampon.length, restant));
+                if (lus < 0) {
+                    throw new EOFException("archive tronquée dans " + nom);
+                }
+                sortie.write(tampon, 0, lus);
+                restant -= lus;
+            }
+        }
+    }
+}
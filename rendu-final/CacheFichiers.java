@@ -0,0 +1,322 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * CacheFichiers - Cache du contenu des fichiers les plus téléchargés (RETR)
+ *
+ * Le contenu des petits et moyens fichiers populaires est conservé hors du tas Java
+ * (ByteBuffer direct, en lecture seule) et envoyé directement sur la socket de données.
+ * Une entrée est invalidée dès que la date de modification ou la taille du fichier
+ * ne correspond plus.
+ *
+ * Politique d'éviction : LRU bornée en octets, avec un filtre d'admission TinyLFU.
+ * Un compteur de fréquence approximatif (count-min sketch à compteurs vieillissants)
+ * estime la popularité de chaque fichier ; un nouveau fichier n'entre dans un cache
+ * plein que s'il est plus demandé que les entrées qu'il évincerait. Un fichier lu
+ * une seule fois ne chasse donc pas les fichiers populaires.
+ *
+ * Métriques exposées : cache.fichiers.succes, cache.fichiers.echecs, cache.fichiers.refus,
+ * cache.fichiers.entrees, cache.fichiers.octets
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public class CacheFichiers {
+
+    // ==================== CONSTANTES ====================
+
+    /** Nombre de lignes du compteur de fréquence */
+    private static final int LIGNES_SKETCH = 4;
+
+    /** Valeur maximale d'un compteur de fréquence */
+    private static final int FREQUENCE_MAX = 15;
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Taille totale maximale du cache */
+    private final long capacite;
+
+    /** Taille maximale d'un fichier mis en cache */
+    private final long tailleMaxFichier;
+
+    /** Entrées dans l'ordre d'accès (LRU) */
+    private final LinkedHashMap<Path, Entree> entrees = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Taille totale des entrées */
+    private long octets;
+
+    /** Compteurs de fréquence (LIGNES_SKETCH lignes de largeur puissance de 2) */
+    private final int[][] sketch;
+
+    /** Masque d'indice dans une ligne du sketch */
+    private final int masqueSketch;
+
+    /** Nombre d'incréments avant de diviser tous les compteurs par deux */
+    private final int periodeVieillissement;
+
+    /** Incréments depuis le dernier vieillissement */
+    private int increments;
+
+    /** Nombre de RETR servis depuis le cache */
+    private final AtomicLong succes = new AtomicLong();
+
+    /** Nombre de RETR non servis depuis le cache */
+    private final AtomicLong echecs = new AtomicLong();
+
+    /** Nombre de fichiers refusés par le filtre d'admission */
+    private final AtomicLong refus = new AtomicLong();
+
+    // ==================== CONSTRUCTEUR ====================
+
+    /**
+     * Crée un cache de fichiers
+     *
+     * @param capacite Taille totale maximale en octets
+     * @param tailleMaxFichier Taille maximale d'un fichier mis en cache
+     */
+    public CacheFichiers(long capacite, long tailleMaxFichier) {
+        this.capacite = capacite;
+        this.tailleMaxFichier = Math.min(tailleMaxFichier, capacite);
+
+        // Largeur dimensionnée pour quelques milliers de fichiers distincts
+        int largeur = Integer.highestOneBit((int) Math.max(1024, Math.min(1 << 20, capacite / 4096)));
+        this.sketch = new int[LIGNES_SKETCH][largeur];
+        this.masqueSketch = largeur - 1;
+        this.periodeVieillissement = largeur * 10;
+
+        MetriquesFTP.enregistrer("cache.fichiers.succes", succes::get);
+        MetriquesFTP.enregistrer("cache.fichiers.echecs", echecs::get);
+        MetriquesFTP.enregistrer("cache.fichiers.refus", refus::get);
+        MetriquesFTP.enregistrer("cache.fichiers.entrees", () -> {
+            synchronized (this) {
+                return entrees.size();
+            }
+        });
+        MetriquesFTP.enregistrer("cache.fichiers.octets", () -> {
+            synchronized (this) {
+                return octets;
+            }
+        });
+    }
+
+    // ==================== MÉTHODES PRINCIPALES ====================
+
+    /**
+     * Retourne le contenu d'un fichier, depuis le cache si possible
+     * En cas d'absence, le fichier est chargé et admis dans le cache s'il est
+     * assez petit et assez populaire.
+     *
+     * @param fichier Chemin absolu normalisé du fichier
+     * @return Contenu du fichier (vue en lecture seule positionnée au début),
+     *         ou null si le fichier n'est pas mis en cache
+     * @throws IOException Si erreur de lecture des attributs ou du contenu
+     */
+    public ByteBuffer obtenir(Path fichier) throws IOException {
+        BasicFileAttributes attributs = Files.readAttributes(fichier, BasicFileAttributes.class);
+        long dateModification = attributs.lastModifiedTime().toMillis();
+        long taille = attributs.size();
+
+        synchronized (this) {
+            incrementerFrequence(fichier);
+
+            Entree entree = entrees.get(fichier);
+            if (entree != null) {
+                if (entree.dateModification == dateModification && entree.contenu.capacity() == taille) {
+                    succes.incrementAndGet();
+                    return entree.contenu.duplicate();
+                }
+                // Fichier modifié depuis sa mise en cache
+                retirer(fichier);
+            }
+            echecs.incrementAndGet();
+
+            if (taille > tailleMaxFichier || taille == 0 || !admettre(fichier, taille)) {
+                return null;
+            }
+        }
+
+        ByteBuffer contenu = charger(fichier, taille);
+        if (contenu == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            // Un autre RETR a pu charger le même fichier entre-temps
+            if (!entrees.containsKey(fichier) && admettre(fichier, taille)) {
+                liberer(taille);
+                entrees.put(fichier, new Entree(contenu, dateModification));
+                octets += taille;
+            }
+        }
+        return contenu.duplicate();
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Charge un fichier hors du tas
+     *
+     * @param fichier Chemin du fichier
+     * @param taille Taille attendue
+     * @return Contenu en lecture seule, ou null si la taille a changé pendant la lecture
+     * @throws IOException Si erreur de lecture
+     */
+    private static ByteBuffer charger(Path fichier, long taille) throws IOException {
+        ByteBuffer contenu = ByteBuffer.allocateDirect((int) taille);
+        try (FileChannel canal = FileChannel.open(fichier, StandardOpenOption.READ)) {
+            while (contenu.hasRemaining()) {
+                if (canal.read(contenu) < 0) {
+                    return null; // Fichier tronqué pendant la lecture
+                }
+            }
+            if (canal.size() != taille) {
+                return null; // Fichier modifié pendant la lecture
+            }
+        }
+        contenu.flip();
+        return contenu.asReadOnlyBuffer();
+    }
+
+    /**
+     * Filtre d'admission : le fichier entre-t-il dans le cache ?
+     * Il faut qu'il reste de la place, ou qu'il soit plus fréquent que chacune
+     * des entrées qu'il évincerait.
+     * Appelée avec le verrou du cache
+     *
+     * @param fichier Candidat
+     * @param taille Taille du candidat
+     * @return true si le candidat est admis
+     */
+    private boolean admettre(Path fichier, long taille) {
+        long aLiberer = octets + taille - capacite;
+        if (aLiberer <= 0) {
+            return true;
+        }
+
+        int frequenceCandidat = frequence(fichier);
+        for (Map.Entry<Path, Entree> victime : entrees.entrySet()) {
+            if (frequence(victime.getKey()) >= frequenceCandidat) {
+                refus.incrementAndGet();
+                return false;
+            }
+            aLiberer -= victime.getValue().contenu.capacity();
+            if (aLiberer <= 0) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Évince les entrées les moins récemment utilisées jusqu'à disposer de la place demandée
+     * Appelée avec le verrou du cache
+     *
+     * @param taille Place nécessaire
+     */
+    private void liberer(long taille) {
+        Iterator<Map.Entry<Path, Entree>> iterateur = entrees.entrySet().iterator();
+        while (octets + taille > capacite && iterateur.hasNext()) {
+            octets -= iterateur.next().getValue().contenu.capacity();
+            iterateur.remove();
+        }
+    }
+
+    /**
+     * Retire une entrée du cache
+     * Appelée avec le verrou du cache
+     *
+     * @param fichier Chemin du fichier
+     */
+    private void retirer(Path fichier) {
+        Entree entree = entrees.remove(fichier);
+        if (entree != null) {
+            octets -= entree.contenu.capacity();
+        }
+    }
+
+    /**
+     * Incrémente la fréquence estimée d'un fichier, en vieillissant périodiquement les compteurs
+     * Appelée avec le verrou du cache
+     *
+     * @param fichier Fichier demandé
+     */
+    private void incrementerFrequence(Path fichier) {
+        int hachage = melanger(fichier.hashCode());
+        for (int ligne = 0; ligne < LIGNES_SKETCH; ligne++) {
+            int indice = indiceSketch(hachage, ligne);
+            if (sketch[ligne][indice] < FREQUENCE_MAX) {
+                sketch[ligne][indice]++;
+            }
+        }
+
+        if (++increments >= periodeVieillissement) {
+            increments = 0;
+            for (int[] compteurs : sketch) {
+                for (int i = 0; i < compteurs.length; i++) {
+                    compteurs[i] >>= 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Estime la fréquence d'un fichier (minimum des compteurs)
+     * Appelée avec le verrou du cache
+     *
+     * @param fichier Fichier
+     * @return Fréquence estimée
+     */
+    private int frequence(Path fichier) {
+        int hachage = melanger(fichier.hashCode());
+        int minimum = FREQUENCE_MAX;
+        for (int ligne = 0; ligne < LIGNES_SKETCH; ligne++) {
+            minimum = Math.min(minimum, sketch[ligne][indiceSketch(hachage, ligne)]);
+        }
+        return minimum;
+    }
+
+    /**
+     * Indice d'un hachage dans une ligne du sketch
+     *
+     * @param hachage Hachage mélangé
+     * @param ligne Ligne du sketch
+     * @return Indice dans la ligne
+     */
+    private int indiceSketch(int hachage, int ligne) {
+        return melanger(hachage + ligne * 0x9E3779B9) & masqueSketch;
+    }
+
+    /**
+     * Mélange les bits d'un hachage
+     *
+     * @param valeur Hachage
+     * @return Hachage mélangé
+     */
+    private static int melanger(int valeur) {
+        valeur ^= valeur >>> 16;
+        valeur *= 0x85EBCA6B;
+        valeur ^= valeur >>> 13;
+        valeur *= 0xC2B2AE35;
+        return valeur ^ (valeur >>> 16);
+    }
+
+    // ==================== STRUCTURES INTERNES ====================
+
+    /**
+     * Contenu d'un fichier en cache et date de modification correspondante
+     */
+    private static final class Entree {
+        private final ByteBuffer contenu;
+        private final long dateModification;
+
+        Entree(ByteBuffer contenu, long dateModification) {
+            this.contenu = contenu;
+            this.dateModification = dateModification;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * CacheListes - Cache des réponses LIST partagé par toutes les sessions
+ *
+ * Les listes déjà encodées sont conservées par répertoire (chemin absolu normalisé)
+ * avec une éviction LRU bornée en nombre d'entrées et en octets. Chaque répertoire
+ * en cache est surveillé par un WatchService : toute création, suppression ou
+ * modification d'une entrée invalide sa liste.
+ *
+ * Pour ne pas mettre en cache une liste devenue obsolète pendant sa construction,
+ * le répertoire est surveillé avant d'être parcouru (preparer), et la liste n'est
+ * stockée que si aucune invalidation n'est survenue entre-temps (stocker).
+ *
+ * Métriques exposées : cache.listes.succes, cache.listes.echecs, cache.listes.taux_succes_pct,
+ * cache.listes.entrees, cache.listes.octets, cache.listes.repertoires_surveilles
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public class CacheListes {
+
+    // ==================== CONSTANTES ====================
+
+    /** Taille maximale d'une liste mise en cache (au-delà, la liste est envoyée sans être conservée) */
+    public static final int TAILLE_MAX_ENTREE = 4 * 1024 * 1024;
+
+    /** Nombre maximal de répertoires surveillés (entrées en cache et constructions en cours) */
+    private static final int SURVEILLANCES_MAX_FACTEUR = 2;
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Nombre maximal d'entrées */
+    private final int entreesMax;
+
+    /** Taille totale maximale des listes en cache */
+    private final long octetsMax;
+
+    /** Listes en cache, dans l'ordre d'accès (LRU) */
+    private final LinkedHashMap<Path, byte[]> listes = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Surveillance des répertoires */
+    private final WatchService surveillance;
+
+    /** Clés de surveillance par répertoire */
+    private final Map<Path, WatchKey> surveilles = new HashMap<>();
+
+    /** Répertoire correspondant à chaque clé de surveillance */
+    private final Map<WatchKey, Path> repertoires = new HashMap<>();
+
+    /** Version de chaque répertoire surveillé, renouvelée à chaque invalidation */
+    private final Map<Path, Long> versions = new HashMap<>();
+
+    /** Dernière version attribuée (les versions ne sont jamais réutilisées) */
+    private long derniereVersion;
+
+    /** Taille totale des listes en cache */
+    private long octets;
+
+    /** Nombre de listes servies depuis le cache */
+    private final AtomicLong succes = new AtomicLong();
+
+    /** Nombre de listes construites faute d'entrée en cache */
+    private final AtomicLong echecs = new AtomicLong();
+
+    // ==================== CONSTRUCTEUR ====================
+
+    /**
+     * Crée le cache et démarre le thread de surveillance
+     *
+     * @param entreesMax Nombre maximal de listes en cache
+     * @param octetsMax Taille totale maximale des listes en cache
+     * @throws IOException Si le WatchService ne peut pas être créé
+     */
+    public CacheListes(int entreesMax, long octetsMax) throws IOException {
+        this.entreesMax = entreesMax;
+        this.octetsMax = octetsMax;
+        this.surveillance = FileSystems.getDefault().newWatchService();
+
+        Thread thread = new Thread(this::surveiller, "surveillance-listes");
+        thread.setDaemon(true);
+        thread.start();
+
+        MetriquesFTP.enregistrer("cache.listes.succes", succes::get);
+        MetriquesFTP.enregistrer("cache.listes.echecs", echecs::get);
+        MetriquesFTP.enregistrer("cache.listes.taux_succes_pct", () -> {
+            long total = succes.get() + echecs.get();
+            return total == 0 ? 0 : succes.get() * 100 / total;
+        });
+        MetriquesFTP.enregistrer("cache.listes.entrees", () -> {
+            synchronized (this) {
+                return listes.size();
+            }
+        });
+        MetriquesFTP.enregistrer("cache.listes.octets", () -> {
+            synchronized (this) {
+                return octets;
+            }
+        });
+        MetriquesFTP.enregistrer("cache.listes.repertoires_surveilles", () -> {
+            synchronized (this) {
+                return surveilles.size();
+            }
+        });
+    }
+
+    // ==================== MÉTHODES PRINCIPALES ====================
+
+    /**
+     * Recherche la liste d'un répertoire
+     *
+     * @param repertoire Chemin absolu normalisé
+     * @return Liste encodée, ou null si absente du cache
+     */
+    public synchronized byte[] obtenir(Path repertoire) {
+        byte[] liste = listes.get(repertoire);
+        if (liste != null) {
+            succes.incrementAndGet();
+        } else {
+            echecs.incrementAndGet();
+        }
+        return liste;
+    }
+
+    /**
+     * Commence la surveillance d'un répertoire avant sa construction
+     *
+     * @param repertoire Chemin absolu normalisé
+     * @return Version courante du répertoire, à passer à stocker (-1 si non surveillable)
+     */
+    public synchronized long preparer(Path repertoire) {
+        if (!surveilles.containsKey(repertoire)) {
+            if (surveilles.size() >= entreesMax * SURVEILLANCES_MAX_FACTEUR) {
+                return -1;
+            }
+            try {
+                WatchKey cle = repertoire.register(surveillance,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+                surveilles.put(repertoire, cle);
+                repertoires.put(cle, repertoire);
+                versions.put(repertoire, ++derniereVersion);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        return versions.get(repertoire);
+    }
+
+    /**
+     * Stocke la liste d'un répertoire si elle est toujours à jour
+     *
+     * @param repertoire Chemin absolu normalisé
+     * @param version Version retournée par preparer avant la construction
+     * @param liste Liste encodée
+     */
+    public synchronized void stocker(Path repertoire, long version, byte[] liste) {
+        if (version < 0 || versions.getOrDefault(repertoire, -1L) != version) {
+            return;
+        }
+
+        byte[] ancienne = listes.put(repertoire, liste);
+        if (ancienne != null) {
+            octets -= ancienne.length;
+        }
+        octets += liste.length;
+
+        // Éviction des listes les moins récemment utilisées
+        Iterator<Map.Entry<Path, byte[]>> iterateur = listes.entrySet().iterator();
+        while ((listes.size() > entreesMax || octets > octetsMax) && iterateur.hasNext()) {
+            Map.Entry<Path, byte[]> plusAncienne = iterateur.next();
+            iterateur.remove();
+            octets -= plusAncienne.getValue().length;
+            arreterSurveillance(plusAncienne.getKey());
+        }
+    }
+
+    /**
+     * Renonce à mettre en cache un répertoire préparé (liste trop grande ou erreur)
+     *
+     * @param repertoire Chemin absolu normalisé
+     */
+    public synchronized void abandonner(Path repertoire) {
+        if (!listes.containsKey(repertoire)) {
+            arreterSurveillance(repertoire);
+        }
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Invalide la liste d'un répertoire
+     *
+     * @param repertoire Chemin absolu normalisé
+     */
+    private synchronized void invalider(Path repertoire) {
+        byte[] ancienne = listes.remove(repertoire);
+        if (ancienne != null) {
+            octets -= ancienne.length;
+        }
+        if (versions.containsKey(repertoire)) {
+            versions.put(repertoire, ++derniereVersion);
+        }
+    }
+
+    /**
+     * Arrête la surveillance d'un répertoire qui n'est plus en cache
+     * Appelée avec le verrou du cache
+     *
+     * @param repertoire Chemin absolu normalisé
+     */
+    private void arreterSurveillance(Path repertoire) {
+        WatchKey cle = surveilles.remove(repertoire);
+        if (cle != null) {
+            cle.cancel();
+            repertoires.remove(cle);
+        }
+        versions.remove(repertoire);
+    }
+
+    /**
+     * Boucle du thread de surveillance : invalide les répertoires modifiés
+     */
+    private void surveiller() {
+        while (true) {
+            WatchKey cle;
+            try {
+                cle = surveillance.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            // Les événements eux-mêmes importent peu : toute modification invalide la liste
+            cle.pollEvents();
+
+            synchronized (this) {
+                Path repertoire = repertoires.get(cle);
+                if (repertoire != null) {
+                    invalider(repertoire);
+                    if (!cle.reset()) {
+                        // Répertoire supprimé ou inaccessible
+                        arreterSurveillance(repertoire);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.*;
+
+/**
+ * CachePrecompresse - Variantes précompressées des fichiers servis en MODE Z
+ *
+ * Pour un fichier qui ne change pas, recompresser à chaque téléchargement gaspille
+ * du processeur. Au premier RETR en mode compressé d'un fichier assez grand, une
+ * variante compressée (flux zlib, identique à ce qu'enverrait ModeCompresse) est
+ * générée en arrière-plan dans Data/.precompresse. Les téléchargements suivants
+ * envoient cette variante telle quelle, avec FileChannel.transferTo.
+ *
+ * Chaque variante commence par un en-tête de 16 octets : taille puis date de
+ * modification (en millisecondes) du fichier d'origine au moment de la compression.
+ * Une variante dont l'en-tête ne correspond plus au fichier est périmée : elle est
+ * ignorée et régénérée. La variante est écrite dans un fichier temporaire puis
+ * renommée atomiquement, et n'est conservée que si le fichier n'a pas changé
+ * pendant la compression.
+ *
+ * Métriques exposées : precompresse.succes, precompresse.echecs, precompresse.perimes,
+ * precompresse.generes
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public class CachePrecompresse {
+
+    // ==================== CONSTANTES ====================
+
+    /** Nom du répertoire des variantes, sous la racine des données */
+    public static final String REPERTOIRE_VARIANTES = ".precompresse";
+
+    /** Extension des variantes (flux zlib) */
+    private static final String EXTENSION = ".zz";
+
+    /** Taille de l'en-tête : taille et date de modification du fichier d'origine */
+    public static final int TAILLE_EN_TETE = 16;
+
+    /** Nombre maximal de générations en attente */
+    private static final int GENERATIONS_EN_ATTENTE_MAX = 256;
+
+    /** Taille du tampon de compression */
+    private static final int TAILLE_TAMPON = 64 * 1024;
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Racine des données (Data) */
+    private final Path racine;
+
+    /** Répertoire des variantes (Data/.precompresse) */
+    private final Path repertoireVariantes;
+
+    /** Taille minimale d'un fichier pour mériter une variante */
+    private final long tailleMin;
+
+    /** Fichiers dont la variante est en cours de génération */
+    private final Set<Path> enCours = ConcurrentHashMap.newKeySet();
+
+    /** Thread de génération, de faible priorité */
+    private final ThreadPoolExecutor generateur;
+
+    /** Compteurs pour les métriques */
+    private final AtomicLong succes = new AtomicLong();
+    private final AtomicLong echecs = new AtomicLong();
+    private final AtomicLong perimes = new AtomicLong();
+    private final AtomicLong generes = new AtomicLong();
+
+    // ==================== CONSTRUCTEUR ====================
+
+    /**
+     * Crée le cache des variantes précompressées
+     *
+     * @param racine Racine des données (les fichiers servis sont sous cette racine)
+     * @param tailleMin Taille minimale d'un fichier pour générer une variante
+     */
+    public CachePrecompresse(Path racine, long tailleMin) {
+        this.racine = racine.toAbsolutePath().normalize();
+        this.repertoireVariantes = this.racine.resolve(REPERTOIRE_VARIANTES);
+        this.tailleMin = tailleMin;
+
+        this.generateur = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(GENERATIONS_EN_ATTENTE_MAX), tache -> {
+                Thread thread = new Thread(tache, "precompression");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+
+        MetriquesFTP.enregistrer("precompresse.succes", succes::get);
+        MetriquesFTP.enregistrer("precompresse.echecs", echecs::get);
+        MetriquesFTP.enregistrer("precompresse.perimes", perimes::get);
+        MetriquesFTP.enregistrer("precompresse.generes", generes::get);
+    }
+
+    // ==================== MÉTHODES PRINCIPALES ====================
+
+    /**
+     * Ouvre la variante à jour d'un fichier
+     * Si elle est absente ou périmée, sa génération est demandée en arrière-plan
+     * et null est retourné : le fichier doit alors être compressé à la volée.
+     * Un fichier dont la taille n'est plus celle annoncée au client est en cours de
+     * modification : null est retourné, sans demander de génération.
+     *
+     * @param fichier Fichier demandé (sous la racine des données)
+     * @param tailleAnnoncee Taille du fichier annoncée au client (213)
+     * @return Canal de la variante, positionné après l'en-tête (à fermer par l'appelant), ou null
+     */
+    public FileChannel ouvrir(Path fichier, long tailleAnnoncee) {
+        Path source = fichier.toAbsolutePath().normalize();
+        if (!source.startsWith(racine) || source.startsWith(repertoireVariantes)) {
+            return null;
+        }
+
+        BasicFileAttributes attributs;
+        try {
+            attributs = Files.readAttributes(source, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        if (attributs.size() < tailleMin || attributs.size() != tailleAnnoncee) {
+            return null;
+        }
+
+        Path variante = variante(source);
+        FileChannel canal = null;
+        try {
+            canal = FileChannel.open(variante, StandardOpenOption.READ);
+            ByteBuffer enTete = ByteBuffer.allocate(TAILLE_EN_TETE);
+            while (enTete.hasRemaining() && canal.read(enTete) >= 0) {
+                // Lire l'en-tête complet
+            }
+            enTete.flip();
+            if (enTete.remaining() == TAILLE_EN_TETE
+                    && enTete.getLong() == attributs.size()
+                    && enTete.getLong() == attributs.lastModifiedTime().toMillis()) {
+                succes.incrementAndGet();
+                return canal;
+            }
+            perimes.incrementAndGet();
+            canal.close();
+        } catch (NoSuchFileException e) {
+            echecs.incrementAndGet();
+        } catch (IOException e) {
+            echecs.incrementAndGet();
+            fermer(canal);
+        }
+
+        demanderGeneration(source);
+        return null;
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Demande la génération d'une variante, sauf si elle est déjà en cours
+     *
+     * @param source Fichier d'origine
+     */
+    private void demanderGeneration(Path source) {
+        if (!enCours.add(source)) {
+            return;
+        }
+        try {
+            generateur.execute(() -> {
+                try {
+                    generer(source);
+                } catch (IOException e) {
+                    JournalFTP.erreur("Précompression impossible : ", e.getMessage());
+                } finally {
+                    enCours.remove(source);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // File pleine : le fichier sera proposé de nouveau au prochain téléchargement
+            enCours.remove(source);
+        }
+    }
+
+    /**
+     * Génère la variante compressée d'un fichier
+     *
+     * @param source Fichier d'origine
+     * @throws IOException Si erreur de lecture ou d'écriture
+     */
+    private void generer(Path source) throws IOException {
+        BasicFileAttributes avant = Files.readAttributes(source, BasicFileAttributes.class);
+        Path variante = variante(source);
+        Files.createDirectories(variante.getParent());
+        Path temporaire = Files.createTempFile(variante.getParent(), variante.getFileName().toString(), ".tmp");
+
+        Deflater compresseur = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            try (OutputStream sortie = Files.newOutputStream(temporaire);
+                 InputStream entree = Files.newInputStream(source)) {
+                ByteBuffer enTete = ByteBuffer.allocate(TAILLE_EN_TETE);
+                enTete.putLong(avant.size()).putLong(avant.lastModifiedTime().toMillis());
+                sortie.write(enTete.array());
+
+                DeflaterOutputStream compresse = new DeflaterOutputStream(sortie, compresseur, TAILLE_TAMPON);
+                entree.transferTo(compresse);
+                compresse.finish();
+            }
+
+            // Le fichier a changé pendant la compression : la variante serait fausse
+            BasicFileAttributes apres = Files.readAttributes(source, BasicFileAttributes.class);
+            if (apres.size() != avant.size() || !apres.lastModifiedTime().equals(avant.lastModifiedTime())) {
+                return;
+            }
+
+            Files.move(temporaire, variante, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            generes.incrementAndGet();
+            JournalFTP.debug("Variante précompressée générée : ", variante);
+        } finally {
+            compresseur.end();
+            Files.deleteIfExists(temporaire);
+        }
+    }
+
+    /**
+     * Chemin de la variante d'un fichier
+     *
+     * @param source Fichier d'origine (sous la racine)
+     * @return Chemin de la variante
+     */
+    private Path variante(Path source) {
+        return repertoireVariantes.resolve(racine.relativize(source).toString() + EXTENSION);
+    }
+
+    /**
+     * Ferme un canal sans propager d'erreur
+     *
+     * @param canal Canal à fermer (peut être null)
+     */
+    private static void fermer(FileChannel canal) {
+        if (canal != null) {
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // Rien à faire
+            }
+        }
+    }
+}
@@ -1,7 +1,10 @@
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
-import java.util.Scanner;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * ClientFTP - Client FTP complet en ligne de commande
@@ -11,6 +14,16 @@ import java.util.Scanner;
  * - Exercice 2 : Mode actif (PORT) et mode passif (PASV)
  * - Exercice 3 : Manipulation de fichiers (LIST, CWD, RETR)
  * - Exercice 4 : Support complet pour tous les utilisateurs
+ * - Envoi de commandes en lot (pipeline) : une seule écriture, réponses lues dans l'ordre
+ * - Mode bloc (MODE B) : une même connexion de données pour plusieurs transferts
+ * - Mode compressé (MODE Z) : données décompressées à la réception
+ * - Téléchargement en lot (mget/rget) : archive MRET décompactée au fil de l'eau
+ * - Téléchargement parallèle (pget) : segments REST sur plusieurs sessions
+ * - Reprise automatique (get) d'un fichier local partiel, avec contrôle de la taille finale
+ * - Réception sans copie (get) : fichier préalloué puis rempli par projection en mémoire
+ * - Téléversement (put, append) : taille annoncée par ALLO, puis STOR ou APPE
+ * - Progression des transferts publiée à intervalle fixe (débits, temps restant),
+ *   affichée en mode interactif et transmise aux écouteurs enregistrés
  *
  * @author TP2 - ARSIR Polytech 4A
  * @version Finale - Exercices 1-4
@@ -25,6 +38,33 @@ public class ClientFTP {
     /** Port de contrôle du serveur FTP */
     private static final int PORT_SERVEUR = 2121;
 
+    /** Nombre de segments par défaut d'un téléchargement parallèle */
+    private static final int SEGMENTS_PAR_DEFAUT = 4;
+
+    /** Taille minimale d'un segment (en deçà, moins de segments sont utilisés) */
+    private static final long TAILLE_MIN_SEGMENT = 1024 * 1024;
+
+    /** Taille du tampon de réception d'un segment */
+    private static final int TAILLE_TAMPON_SEGMENT = 64 * 1024;
+
+    /** Taille des fenêtres de projection en mémoire d'un fichier reçu */
+    private static final long TAILLE_FENETRE_PROJECTION = 64L * 1024 * 1024;
+
+    /** Extension du fichier local pendant la réception (renommé une fois complet) */
+    private static final String EXTENSION_PARTIEL = ".part";
+
+    /** Extension du marqueur des octets reçus d'un fichier partiel préalloué */
+    private static final String EXTENSION_MARQUEUR = ".recus";
+
+    /** Octets reçus entre deux mises à jour du marqueur */
+    private static final long OCTETS_ENTRE_MARQUEURS = 8L * 1024 * 1024;
+
+    /** Recevoir les fichiers directement dans leur projection en mémoire (mode flux) */
+    private static boolean receptionZeroCopie = true;
+
+    /** Afficher la progression des transferts (par défaut : si le client a une console) */
+    private static boolean afficherProgression = System.console() != null;
+
     // ==================== VARIABLES D'INSTANCE ====================
 
     /** Socket de contrôle pour communiquer avec le serveur */
@@ -42,6 +82,9 @@ public class ClientFTP {
     /** Socket de données pour les transferts */
     private Socket socketDonnees;
 
+    /** Réglage adaptatif de la connexion de données (morceaux, tampons de la socket) */
+    private ReglageTransfert reglageDonnees;
+
     /** Port local utilisé pour le mode actif */
     private int portLocalActif;
 
@@ -52,12 +95,28 @@ public class ClientFTP {
     /** Mode de transfert configuré */
     private String modeTransfert;
 
+    /** Mode bloc (MODE B) : la connexion de données est conservée d'un transfert à l'autre */
+    private boolean modeBloc;
+
+    /** Mode compressé (MODE Z) : les données reçues sont décompressées */
+    private boolean modeCompresse;
+
     /** Indique si le client est connecté */
     private boolean estConnecte;
 
     /** Indique si l'utilisateur est authentifié */
     private boolean estAuthentifie;
 
+    /** Identifiants envoyés (rejoués par les sessions d'un téléchargement parallèle) */
+    private String nomUtilisateur;
+    private String motDePasse;
+
+    /** Commandes CWD acceptées depuis la connexion (rejouées par les sessions parallèles) */
+    private final List<String> cheminDistant = new ArrayList<>();
+
+    /** Écouteurs de la progression des transferts (aucun : progression non publiée) */
+    private final List<SuiviProgression.Ecouteur> ecouteursProgression = new CopyOnWriteArrayList<>();
+
     // ==================== CONSTRUCTEUR ====================
 
     /**
@@ -69,6 +128,26 @@ public class ClientFTP {
         this.modeTransfert = null;
     }
 
+    /**
+     * Enregistre un écouteur de la progression des transferts (get, pget, put, append)
+     * L'écouteur est notifié toutes les SuiviProgression.INTERVALLE_MS pendant un
+     * transfert, puis une dernière fois à sa fin.
+     *
+     * @param ecouteur Écouteur à ajouter
+     */
+    public void ajouterEcouteurProgression(SuiviProgression.Ecouteur ecouteur) {
+        ecouteursProgression.add(ecouteur);
+    }
+
+    /**
+     * Retire un écouteur de la progression (pris en compte au transfert suivant)
+     *
+     * @param ecouteur Écouteur à retirer
+     */
+    public void retirerEcouteurProgression(SuiviProgression.Ecouteur ecouteur) {
+        ecouteursProgression.remove(ecouteur);
+    }
+
     // ==================== MÉTHODES DE CONNEXION ====================
 
     /**
@@ -130,6 +209,7 @@ public class ClientFTP {
      */
     public String envoyerUser(String nomUtilisateur) {
         String reponse = envoyerCommande("USER " + nomUtilisateur);
+        memoriserIdentifiant("USER", nomUtilisateur, reponse);
         if (reponse != null && (reponse.startsWith("230") || reponse.startsWith("331"))) {
             // Utilisateur reconnu
             if (reponse.startsWith("230")) {
@@ -147,12 +227,33 @@ public class ClientFTP {
      */
     public String envoyerPass(String motDePasse) {
         String reponse = envoyerCommande("PASS " + motDePasse);
+        memoriserIdentifiant("PASS", motDePasse, reponse);
         if (reponse != null && reponse.startsWith("230")) {
             estAuthentifie = true;
         }
         return reponse;
     }
 
+    /**
+     * Mémorise les identifiants acceptés, pour ouvrir d'autres sessions (pget)
+     *
+     * @param verbe USER ou PASS
+     * @param valeur Nom d'utilisateur ou mot de passe
+     * @param reponse Réponse du serveur
+     */
+    private void memoriserIdentifiant(String verbe, String valeur, String reponse) {
+        if (reponse == null) {
+            return;
+        }
+        if (verbe.equals("USER") && (reponse.startsWith("230") || reponse.startsWith("331"))) {
+            nomUtilisateur = valeur;
+            motDePasse = null;
+            cheminDistant.clear();
+        } else if (verbe.equals("PASS") && reponse.startsWith("230")) {
+            motDePasse = valeur;
+        }
+    }
+
     /**
      * Envoie la commande PORT pour configurer le mode actif (Exercice 2)
      * Le client ouvre un port local et communique ses coordonnées au serveur
@@ -160,14 +261,36 @@ public class ClientFTP {
      * @return Réponse du serveur
      */
     public String envoyerPort() {
+        fermerConnexionDonnees();
+        String argument = preparerModeActif();
+        if (argument == null) {
+            return null;
+        }
+
+        String reponse = envoyerCommande("PORT " + argument);
+        if (reponse != null && reponse.startsWith("200")) {
+            modeTransfert = "actif";
+        }
+        return reponse;
+    }
+
+    /**
+     * Ouvre le port local du mode actif
+     *
+     * @return Argument de la commande PORT (a,b,c,d,e,f), ou null en cas d'erreur
+     */
+    private String preparerModeActif() {
         try {
             // Fermer l'ancien socket s'il existe
             if (socketServeurActif != null && !socketServeurActif.isClosed()) {
                 socketServeurActif.close();
             }
 
-            // Créer un socket serveur sur un port disponible
-            socketServeurActif = new ServerSocket(0); // Port automatique
+            // Créer un socket serveur sur un port disponible (tampon de réception agrandi avant bind)
+            // Adossé à un ServerSocketChannel : les connexions acceptées ont un SocketChannel
+            socketServeurActif = ServerSocketChannel.open().socket();
+            ReglageTransfert.preparer(socketServeurActif);
+            socketServeurActif.bind(new InetSocketAddress(0)); // Port automatique
             portLocalActif = socketServeurActif.getLocalPort();
 
             // Obtenir l'adresse IP locale
@@ -182,12 +305,7 @@ public class ClientFTP {
                 octets[0], octets[1], octets[2], octets[3], p1, p2);
 
             System.out.println("[CLIENT] Mode actif configuré sur le port local : " + portLocalActif);
-
-            String reponse = envoyerCommande("PORT " + argument);
-            if (reponse != null && reponse.startsWith("200")) {
-                modeTransfert = "actif";
-            }
-            return reponse;
+            return argument;
 
         } catch (IOException e) {
             System.err.println("[ERREUR] Impossible de créer le socket pour le mode actif : " + e.getMessage());
@@ -202,35 +320,58 @@ public class ClientFTP {
      * @return Réponse du serveur
      */
     public String envoyerPasv() {
+        fermerConnexionDonnees();
         String reponse = envoyerCommande("PASV");
+        configurerModePassif(reponse);
+        return reponse;
+    }
 
+    /**
+     * Configure le mode passif à partir de la réponse à PASV
+     *
+     * @param reponse Réponse du serveur à PASV
+     */
+    private void configurerModePassif(String reponse) {
         if (reponse != null && reponse.startsWith("227")) {
             // Parser la réponse pour extraire l'adresse et le port
             // Format : 227 Mode passif activé (a,b,c,d,e,f)
             try {
-                int debut = reponse.indexOf('(');
-                int fin = reponse.indexOf(')');
-
-                if (debut != -1 && fin != -1) {
-                    String coordonnees = reponse.substring(debut + 1, fin);
-                    String[] parties = coordonnees.split(",");
+                InetSocketAddress adresse = analyserPasv(reponse);
 
-                    if (parties.length == 6) {
-                        adresseServeurPassif = String.format("%s.%s.%s.%s",
-                            parties[0], parties[1], parties[2], parties[3]);
-                        portServeurPassif = Integer.parseInt(parties[4]) * 256 + Integer.parseInt(parties[5]);
-                        modeTransfert = "passif";
+                if (adresse != null) {
+                    adresseServeurPassif = adresse.getHostString();
+                    portServeurPassif = adresse.getPort();
+                    modeTransfert = "passif";
 
-                        System.out.println(String.format("[CLIENT] Mode passif configuré : %s:%d",
-                            adresseServeurPassif, portServeurPassif));
-                    }
+                    System.out.println(String.format("[CLIENT] Mode passif configuré : %s:%d",
+                        adresseServeurPassif, portServeurPassif));
                 }
             } catch (Exception e) {
                 System.err.println("[ERREUR] Impossible de parser la réponse PASV : " + e.getMessage());
             }
         }
+    }
 
-        return reponse;
+    /**
+     * Extrait l'adresse de la réponse à PASV
+     * Format : 227 Mode passif activé (a,b,c,d,e,f)
+     *
+     * @param reponse Réponse 227
+     * @return Adresse de la connexion de données, ou null si la réponse est mal formée
+     */
+    private static InetSocketAddress analyserPasv(String reponse) {
+        int debut = reponse.indexOf('(');
+        int fin = reponse.indexOf(')');
+        if (debut == -1 || fin == -1) {
+            return null;
+        }
+        String[] parties = reponse.substring(debut + 1, fin).split(",");
+        if (parties.length != 6) {
+            return null;
+        }
+        String adresse = String.format("%s.%s.%s.%s", parties[0], parties[1], parties[2], parties[3]);
+        int port = Integer.parseInt(parties[4].trim()) * 256 + Integer.parseInt(parties[5].trim());
+        return InetSocketAddress.createUnresolved(adresse, port);
     }
 
     /**
@@ -239,15 +380,24 @@ public class ClientFTP {
      * @return Réponse du serveur
      */
     public String envoyerList() {
-        String reponse = envoyerCommande("LIST");
+        return recevoirListe(envoyerCommande("LIST"));
+    }
 
-        if (reponse != null && reponse.startsWith("150")) {
+    /**
+     * Reçoit la liste des fichiers après la réponse à LIST
+     *
+     * @param reponse Première réponse du serveur à LIST
+     * @return Réponse finale du serveur
+     */
+    private String recevoirListe(String reponse) {
+        // 150 (nouvelle connexion de données) ou 125 (connexion conservée en mode bloc)
+        if (reponse != null && reponse.startsWith("1")) {
             // Établir la connexion de données
             if (etablirConnexionDonnees()) {
                 try {
                     // Lire les données
                     BufferedReader lecteurDonnees = new BufferedReader(
-                        new InputStreamReader(socketDonnees.getInputStream()));
+                        new InputStreamReader(ouvrirFluxDonnees()));
 
                     System.out.println("\n--- LISTE DES FICHIERS ---");
 
@@ -258,7 +408,7 @@ public class ClientFTP {
 
                     System.out.println("--- FIN DE LA LISTE ---\n");
 
-                    socketDonnees.close();
+                    terminerConnexionDonnees();
 
                     // Lire la réponse finale (226)
                     reponse = lireReponse();
@@ -280,20 +430,109 @@ public class ClientFTP {
      * @return Réponse du serveur
      */
     public String envoyerCwd(String dossier) {
-        return envoyerCommande("CWD " + dossier);
+        String reponse = envoyerCommande("CWD " + dossier);
+        if (reponse != null && reponse.startsWith("250")) {
+            cheminDistant.add(dossier);
+        }
+        return reponse;
     }
 
     /**
      * Envoie la commande RETR pour télécharger un fichier (Exercice 3)
+     * Si un fichier local partiel existe, le téléchargement reprend à sa fin (REST)
      *
      * @param nomFichier Nom du fichier à télécharger
      * @return Réponse du serveur
      */
     public String envoyerRetr(String nomFichier) {
-        String reponse = envoyerCommande("RETR " + nomFichier);
+        long position = preparerReprise(nomFichier);
+        if (position < 0) {
+            return null; // Fichier local déjà complet
+        }
+        return recevoirFichier(nomFichier, position, envoyerCommande("RETR " + nomFichier));
+    }
+
+    /**
+     * Prépare la reprise d'un téléchargement interrompu
+     * Un téléchargement est reçu dans « nom.part », renommé en « nom » une fois complet :
+     * un fichier « nom » est donc complet, et n'est pas retéléchargé s'il a la taille du
+     * fichier distant (SIZE). Un fichier partiel est d'abord ramené aux octets
+     * effectivement reçus (voir restaurerPartiel), puis complété à partir de sa fin
+     * (REST) ; s'il est plus long que le fichier distant, il est retéléchargé entièrement.
+     *
+     * @param nomFichier Nom du fichier à télécharger
+     * @return Position de reprise (0 : téléchargement complet), ou -1 si le fichier local est déjà complet
+     */
+    private long preparerReprise(String nomFichier) {
+        Path cheminSortie = Paths.get(nomFichier);
+        Path partiel = fichierPartiel(cheminSortie);
+        boolean complet;
+        long tailleLocale;
+        try {
+            restaurerPartiel(partiel);
+            complet = !Files.isRegularFile(partiel);
+            Path candidat = complet ? cheminSortie : partiel;
+            if (!Files.isRegularFile(candidat) || (tailleLocale = Files.size(candidat)) == 0) {
+                return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+
+        String reponse = envoyerCommande("SIZE " + nomFichier);
+        if (reponse == null || !reponse.startsWith("213")) {
+            return 0; // Taille distante inconnue : téléchargement complet
+        }
+        long tailleDistante;
+        try {
+            tailleDistante = Long.parseLong(reponse.substring(3).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+
+        if (complet) {
+            if (tailleLocale == tailleDistante) {
+                System.out.println("[CLIENT] Fichier local déjà complet : " + cheminSortie.toAbsolutePath()
+                    + " (" + tailleLocale + " octets)");
+                return -1;
+            }
+            return 0; // Fichier distant modifié depuis : téléchargement complet
+        }
+        if (tailleLocale == tailleDistante) {
+            // Reçu en entier mais pas encore renommé (client arrêté juste avant)
+            try {
+                Files.move(partiel, cheminSortie, StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("[CLIENT] Fichier local déjà complet : " + cheminSortie.toAbsolutePath()
+                    + " (" + tailleLocale + " octets)");
+                return -1;
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+        if (tailleLocale > tailleDistante) {
+            System.out.println("[CLIENT] Fichier local plus grand que le fichier distant : téléchargement complet");
+            return 0;
+        }
 
+        reponse = envoyerCommande("REST " + tailleLocale);
+        if (reponse == null || !reponse.startsWith("350")) {
+            return 0;
+        }
+        System.out.println("[CLIENT] Reprise du téléchargement à l'octet " + tailleLocale + "/" + tailleDistante);
+        return tailleLocale;
+    }
+
+    /**
+     * Reçoit un fichier après la première réponse à RETR (213 suivie de 150)
+     *
+     * @param nomFichier Nom du fichier à télécharger
+     * @param position Position de reprise (octets déjà présents dans le fichier local)
+     * @param reponse Première réponse du serveur à RETR
+     * @return Réponse finale du serveur
+     */
+    private String recevoirFichier(String nomFichier, long position, String reponse) {
         if (reponse != null && reponse.startsWith("213")) {
-            // Extraire la taille du fichier
+            // Extraire le nombre d'octets à recevoir
             String[] parties = reponse.split(" ");
             long tailleFichier = 0;
 
@@ -305,18 +544,18 @@ public class ClientFTP {
                 }
             }
 
-            // Lire la réponse 150
+            // Lire la réponse 150 (ou 125 si la connexion est conservée en mode bloc)
             try {
                 reponse = lireReponse();
                 System.out.println(reponse);
 
-                if (reponse.startsWith("150")) {
+                if (reponse.startsWith("1")) {
                     // Établir la connexion de données
                     if (etablirConnexionDonnees()) {
                         // Télécharger le fichier
-                        telechargerFichier(nomFichier, tailleFichier);
+                        telechargerFichier(nomFichier, position, tailleFichier);
 
-                        socketDonnees.close();
+                        terminerConnexionDonnees();
 
                         // Lire la réponse finale (226)
                         reponse = lireReponse();
@@ -333,38 +572,500 @@ public class ClientFTP {
 
     /**
      * Télécharge un fichier depuis le serveur
+     * En mode flux, sur une connexion adossée à un SocketChannel, le fichier est reçu
+     * directement dans sa projection en mémoire (voir recevoirParProjection) ; sinon
+     * (modes bloc et compressé), par un tampon direct du pool.
+     * Les données sont reçues dans « nom.part » ; en reprise, elles y sont ajoutées à la
+     * fin. La taille finale est comparée à la taille annoncée : un fichier complet est
+     * renommé en « nom », un fichier incomplet est conservé pour être repris par le
+     * prochain get.
      *
      * @param nomFichier Nom du fichier
-     * @param tailleFichier Taille du fichier en octets
+     * @param position Position de reprise (0 : le fichier local est recréé)
+     * @param tailleFichier Nombre d'octets annoncés par le serveur (213)
      */
-    private void telechargerFichier(String nomFichier, long tailleFichier) {
+    private void telechargerFichier(String nomFichier, long position, long tailleFichier) {
+        Path cheminSortie = Paths.get(nomFichier);
+        Path partiel = fichierPartiel(cheminSortie);
+        long tailleAttendue = position + tailleFichier;
+        SuiviProgression suivi = new SuiviProgression(nomFichier, position, tailleAttendue, ecouteursProgression);
         try {
-            Path cheminSortie = Paths.get(nomFichier);
+            System.out.println("[CLIENT] Téléchargement de " + nomFichier + " (" + tailleFichier + " octets)...");
+            reglageDonnees.debuter(false);
 
-            try (InputStream entree = socketDonnees.getInputStream();
-                 OutputStream sortie = Files.newOutputStream(cheminSortie)) {
+            SocketChannel canalDonnees = socketDonnees.getChannel();
+            try {
+                if (receptionZeroCopie && canalDonnees != null && !modeBloc && !modeCompresse && tailleFichier > 0) {
+                    recevoirParProjection(canalDonnees, partiel, position, tailleFichier, suivi);
+                } else {
+                    recevoirParTampon(partiel, position, tailleFichier, suivi);
+                }
+            } finally {
+                suivi.terminer();
+            }
 
-                byte[] tampon = new byte[4096];
-                long octetsLus = 0;
-                int lecture;
+            System.out.println("[CLIENT] Réglage de la connexion : " + reglageDonnees.resume());
 
-                System.out.println("[CLIENT] Téléchargement de " + nomFichier + " (" + tailleFichier + " octets)...");
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Erreur lors du téléchargement du fichier : " + e.getMessage());
+        }
 
-                while (octetsLus < tailleFichier && (lecture = entree.read(tampon)) != -1) {
-                    sortie.write(tampon, 0, lecture);
-                    octetsLus += lecture;
+        // Contrôle de complétude : taille locale contre taille annoncée par le serveur
+        try {
+            long tailleLocale = Files.size(partiel);
+            if (tailleLocale == tailleAttendue) {
+                Files.move(partiel, cheminSortie, StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("[CLIENT] Fichier téléchargé avec succès : " + cheminSortie.toAbsolutePath());
+            } else {
+                System.err.println("[ERREUR] Fichier incomplet : " + tailleLocale + "/" + tailleAttendue
+                    + " octets (relancez get pour reprendre)");
+            }
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Fichier local illisible : " + e.getMessage());
+        }
+    }
 
-                    // Afficher la progression
-                    int pourcentage = (int) ((octetsLus * 100) / tailleFichier);
-                    System.out.print("\r[CLIENT] Progression : " + pourcentage + "% (" + octetsLus + "/" + tailleFichier + " octets)");
+    /**
+     * Reçoit un fichier directement dans sa projection en mémoire
+     * Le fichier est d'abord étendu à sa taille finale (taille annoncée par 213), puis
+     * projeté par fenêtres de TAILLE_FENETRE_PROJECTION : la socket est lue directement
+     * dans les pages du fichier, sans tampon intermédiaire ni écriture. Si la connexion
+     * est coupée avant la fin, le fichier est ramené aux octets reçus, pour la reprise.
+     * Comme le client peut aussi être arrêté brutalement avant d'avoir pu le faire, un
+     * marqueur (voir restaurerPartiel) mémorise les octets reçus toutes les
+     * OCTETS_ENTRE_MARQUEURS, et n'est supprimé qu'une fois le fichier ramené à sa taille.
+     *
+     * @param canal Canal de la connexion de données
+     * @param cheminSortie Fichier local partiel
+     * @param position Position de reprise (0 : le fichier local est recréé)
+     * @param tailleFichier Nombre d'octets annoncés par le serveur
+     * @param suivi Suivi de la progression
+     * @throws IOException Si erreur de lecture ou d'écriture
+     */
+    private void recevoirParProjection(SocketChannel canal, Path cheminSortie, long position, long tailleFichier,
+            SuiviProgression suivi) throws IOException {
+        long tailleAttendue = position + tailleFichier;
+        long recus = 0;
+        Path marqueur = fichierMarqueur(cheminSortie);
+        boolean tailleExacte = false;
+        try {
+            try (RandomAccessFile fichier = new RandomAccessFile(cheminSortie.toFile(), "rw");
+                 FileChannel canalMarqueur = FileChannel.open(marqueur,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // Le marqueur précède la préallocation : seuls les octets qu'il compte sont fiables
+                ecrireMarqueur(canalMarqueur, position);
+                fichier.setLength(tailleAttendue);
+                FileChannel sortie = fichier.getChannel();
+                long marque = 0;
+                try {
+                    while (recus < tailleFichier) {
+                        MappedByteBuffer fenetre = sortie.map(FileChannel.MapMode.READ_WRITE, position + recus,
+                            Math.min(TAILLE_FENETRE_PROJECTION, tailleFichier - recus));
+                        while (fenetre.hasRemaining()) {
+                            int lus = canal.read(fenetre);
+                            if (lus < 0) {
+                                return; // Connexion coupée : fichier incomplet
+                            }
+                            recus += lus;
+                            reglageDonnees.enregistrer(lus);
+                            suivi.avancer(lus);
+                            if (recus - marque >= OCTETS_ENTRE_MARQUEURS) {
+                                // Les octets lus dans la projection sont déjà dans le fichier
+                                ecrireMarqueur(canalMarqueur, position + recus);
+                                marque = recus;
+                            }
+                        }
+                    }
+                } finally {
+                    if (recus < tailleFichier) {
+                        fichier.setLength(position + recus);
+                    }
+                    tailleExacte = true;
                 }
+            }
+        } finally {
+            // Le fichier a sa taille exacte : le marqueur n'est plus nécessaire
+            if (tailleExacte) {
+                Files.deleteIfExists(marqueur);
+            }
+        }
+    }
 
-                System.out.println();
-                System.out.println("[CLIENT] Fichier téléchargé avec succès : " + cheminSortie.toAbsolutePath());
+    /**
+     * Met à jour le marqueur des octets reçus d'un fichier partiel
+     *
+     * @param canalMarqueur Canal du marqueur
+     * @param recus Octets reçus, à partir du début du fichier
+     * @throws IOException Si erreur d'écriture
+     */
+    private static void ecrireMarqueur(FileChannel canalMarqueur, long recus) throws IOException {
+        ByteBuffer valeur = ByteBuffer.allocate(Long.BYTES).putLong(recus).flip();
+        while (valeur.hasRemaining()) {
+            canalMarqueur.write(valeur, valeur.position());
+        }
+    }
+
+    /**
+     * Ramène un fichier partiel aux octets effectivement reçus
+     * Un fichier préalloué (projection, pget) est accompagné d'un marqueur tant qu'il
+     * n'a pas été ramené à sa taille réelle. S'il subsiste, le client a été arrêté
+     * pendant la réception : au-delà des octets comptés par le marqueur, le fichier ne
+     * contient que des zéros, et il est tronqué. Sans marqueur lisible, rien n'est fiable.
+     *
+     * @param partiel Fichier partiel
+     * @throws IOException Si erreur d'accès aux fichiers
+     */
+    private static void restaurerPartiel(Path partiel) throws IOException {
+        Path marqueur = fichierMarqueur(partiel);
+        if (!Files.exists(marqueur)) {
+            return;
+        }
+        long recus = 0;
+        byte[] valeur = Files.readAllBytes(marqueur);
+        if (valeur.length == Long.BYTES) {
+            recus = Math.max(0, ByteBuffer.wrap(valeur).getLong());
+        }
+        if (Files.exists(partiel)) {
+            try (FileChannel canal = FileChannel.open(partiel, StandardOpenOption.WRITE)) {
+                if (canal.size() > recus) {
+                    canal.truncate(recus);
+                }
             }
+        }
+        Files.delete(marqueur);
+    }
+
+    /**
+     * Fichier partiel d'un téléchargement
+     *
+     * @param cheminSortie Fichier final
+     * @return « nom.part », dans le même répertoire
+     */
+    private static Path fichierPartiel(Path cheminSortie) {
+        return cheminSortie.resolveSibling(cheminSortie.getFileName() + EXTENSION_PARTIEL);
+    }
 
+    /**
+     * Marqueur des octets reçus d'un fichier partiel préalloué
+     *
+     * @param partiel Fichier partiel
+     * @return « nom.part.recus », dans le même répertoire
+     */
+    private static Path fichierMarqueur(Path partiel) {
+        return partiel.resolveSibling(partiel.getFileName() + EXTENSION_MARQUEUR);
+    }
+
+    /**
+     * Reçoit un fichier par un tampon direct du pool, écrit à la suite du fichier local
+     *
+     * @param cheminSortie Fichier local partiel
+     * @param position Position de reprise (0 : le fichier local est recréé)
+     * @param tailleFichier Nombre d'octets annoncés par le serveur
+     * @param suivi Suivi de la progression
+     * @throws IOException Si erreur de lecture ou d'écriture
+     */
+    private void recevoirParTampon(Path cheminSortie, long position, long tailleFichier, SuiviProgression suivi)
+            throws IOException {
+        OpenOption[] options = position > 0
+            ? new OpenOption[] {StandardOpenOption.WRITE, StandardOpenOption.APPEND}
+            : new OpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING};
+
+        ByteBuffer tampon = PoolTampons.acquerir(reglageDonnees.tailleMorceau());
+        try (ReadableByteChannel entree = Channels.newChannel(ouvrirFluxDonnees());
+             FileChannel sortie = FileChannel.open(cheminSortie, options)) {
+
+            long octetsLus = 0;
+            int lecture;
+
+            while (octetsLus < tailleFichier && (lecture = entree.read(tampon)) != -1) {
+                tampon.flip();
+                while (tampon.hasRemaining()) {
+                    sortie.write(tampon);
+                }
+                octetsLus += lecture;
+                reglageDonnees.enregistrer(lecture);
+                suivi.avancer(lecture);
+                if (tampon.capacity() != reglageDonnees.tailleMorceau()) {
+                    // Nouveau tampon obtenu avant de rendre l'ancien : jamais rendu deux fois
+                    ByteBuffer nouveau = PoolTampons.acquerir(reglageDonnees.tailleMorceau());
+                    PoolTampons.liberer(tampon);
+                    tampon = nouveau;
+                }
+                tampon.clear();
+            }
+        } finally {
+            PoolTampons.liberer(tampon);
+        }
+    }
+
+    /**
+     * Téléverse un fichier local (STOR, ou APPE pour l'ajouter à la fin du fichier distant)
+     * La taille est d'abord annoncée par ALLO, pour que le serveur réserve la place.
+     *
+     * @param fichierLocal Chemin du fichier local
+     * @param nomDistant Nom du fichier sur le serveur
+     * @param ajout true pour APPE, false pour STOR
+     * @return Réponse finale du serveur
+     */
+    public String envoyerStor(String fichierLocal, String nomDistant, boolean ajout) {
+        Path source = Paths.get(fichierLocal);
+        long tailleFichier;
+        try {
+            if (!Files.isRegularFile(source)) {
+                System.err.println("[ERREUR] Fichier local introuvable : " + fichierLocal);
+                return null;
+            }
+            tailleFichier = Files.size(source);
         } catch (IOException e) {
-            System.err.println("[ERREUR] Erreur lors du téléchargement du fichier : " + e.getMessage());
+            System.err.println("[ERREUR] Fichier local illisible : " + e.getMessage());
+            return null;
+        }
+
+        envoyerCommande("ALLO " + tailleFichier);
+        String reponse = envoyerCommande((ajout ? "APPE " : "STOR ") + nomDistant);
+        if (reponse == null || !reponse.startsWith("1")) {
+            return reponse;
+        }
+
+        try {
+            if (etablirConnexionDonnees()) {
+                televerserFichier(source, tailleFichier);
+
+                // Mode flux ou compressé : la fermeture signale la fin du fichier
+                terminerConnexionDonnees();
+
+                // Lire la réponse finale (226)
+                reponse = lireReponse();
+                System.out.println(reponse);
+            }
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Erreur lors du téléversement : " + e.getMessage());
+            fermerConnexionDonnees();
+        }
+        return reponse;
+    }
+
+    /**
+     * Envoie le contenu d'un fichier local sur la connexion de données
+     * En mode bloc, le fichier est découpé en blocs ; en mode compressé, il est
+     * compressé au fil de l'eau. Dans tous les modes, la progression est publiée.
+     *
+     * @param source Fichier local
+     * @param tailleFichier Taille du fichier
+     * @throws IOException Si erreur de lecture ou d'écriture
+     */
+    private void televerserFichier(Path source, long tailleFichier) throws IOException {
+        WritableByteChannel canal = Channels.newChannel(socketDonnees.getOutputStream());
+        System.out.println("[CLIENT] Téléversement de " + source + " (" + tailleFichier + " octets)...");
+
+        try (FileChannel canalFichier = FileChannel.open(source, StandardOpenOption.READ)) {
+            reglageDonnees.debuter(true);
+            SuiviProgression suivi = new SuiviProgression(source.toString(), 0, tailleFichier, ecouteursProgression);
+            try {
+                if (modeBloc) {
+                    new ModeBloc.Sortie(canal).transfererDepuis(canalFichier, 0, tailleFichier, envoyes -> {
+                        reglageDonnees.enregistrer(envoyes);
+                        suivi.avancer(envoyes);
+                    });
+                    return;
+                }
+
+                try (ModeCompresse.Sortie compression = modeCompresse ? new ModeCompresse.Sortie(canal) : null) {
+                    WritableByteChannel sortie = compression != null ? compression : canal;
+                    long position = 0;
+                    while (position < tailleFichier) {
+                        long envoyes = canalFichier.transferTo(position,
+                            Math.min(reglageDonnees.tailleMorceau(), tailleFichier - position), sortie);
+                        if (envoyes <= 0) {
+                            throw new EOFException("fichier local tronqué pendant l'envoi");
+                        }
+                        position += envoyes;
+                        reglageDonnees.enregistrer(envoyes);
+                        suivi.avancer(envoyes);
+                    }
+                    if (compression != null) {
+                        compression.terminer();
+                    }
+                }
+            } finally {
+                suivi.terminer();
+            }
+        }
+    }
+
+    /**
+     * Envoie la commande MRET pour télécharger un lot de fichiers
+     * Les fichiers sont extraits dans le répertoire local courant, au fil de la réception
+     *
+     * @param argument [-z] répertoire ou motif (ex. documents, *.txt)
+     * @return Réponse du serveur
+     */
+    public String envoyerMret(String argument) {
+        return recevoirArchive(envoyerCommande("MRET " + argument));
+    }
+
+    /**
+     * Reçoit et extrait l'archive après la première réponse à MRET
+     *
+     * @param reponse Première réponse du serveur à MRET
+     * @return Réponse finale du serveur
+     */
+    private String recevoirArchive(String reponse) {
+        if (reponse == null || !reponse.startsWith("1") || !etablirConnexionDonnees()) {
+            return reponse;
+        }
+        Path destination = Paths.get("").toAbsolutePath();
+        int nombreFichiers = 0;
+        long octets = 0;
+        try {
+            try (InputStream entree = ouvrirFluxDonnees()) {
+                ArchiveLot.Lecteur archive = new ArchiveLot.Lecteur(new BufferedInputStream(entree));
+                while (archive.suivant()) {
+                    Path cheminSortie = destination.resolve(archive.nom()).normalize();
+                    if (!cheminSortie.startsWith(destination) || cheminSortie.equals(destination)) {
+                        System.err.println("[ERREUR] Entrée ignorée (hors du répertoire local) : " + archive.nom());
+                        continue;
+                    }
+                    if (cheminSortie.getParent() != null) {
+                        Files.createDirectories(cheminSortie.getParent());
+                    }
+                    try (OutputStream sortie = new BufferedOutputStream(Files.newOutputStream(cheminSortie))) {
+                        archive.copierVers(sortie);
+                    }
+                    nombreFichiers++;
+                    octets += archive.taille();
+                    System.out.println("[CLIENT] " + archive.nom() + " (" + archive.taille() + " octets)");
+                }
+            }
+            terminerConnexionDonnees();
+            System.out.println("[CLIENT] Lot extrait : " + nombreFichiers + " fichier(s), " + octets + " octets dans " + destination);
+
+            // Lire la réponse finale (226)
+            reponse = lireReponse();
+            System.out.println(reponse);
+        } catch (IOException e) {
+            fermerConnexionDonnees();
+            System.err.println("[ERREUR] Erreur lors de la réception du lot : " + e.getMessage());
+        }
+        return reponse;
+    }
+
+    /**
+     * Télécharge un fichier en plusieurs segments, en parallèle
+     * Chaque segment ouvre sa propre session (identifiants et CWD rejoués), se place
+     * au début de sa plage avec REST et écrit dans le fichier local par écritures
+     * positionnelles. Les segments font au moins TAILLE_MIN_SEGMENT octets.
+     *
+     * @param nomFichier Nom du fichier à télécharger
+     * @param nombreSegments Nombre de segments (sessions) souhaité
+     * @return true si le fichier a été téléchargé entièrement
+     */
+    public boolean telechargerEnParallele(String nomFichier, int nombreSegments) {
+        String reponse = envoyerCommande("SIZE " + nomFichier);
+        if (reponse == null || !reponse.startsWith("213")) {
+            System.err.println("[ERREUR] Taille du fichier indisponible");
+            return false;
+        }
+        long tailleFichier;
+        try {
+            tailleFichier = Long.parseLong(reponse.substring(3).trim());
+        } catch (NumberFormatException e) {
+            System.err.println("[ERREUR] Impossible de lire la taille du fichier");
+            return false;
+        }
+
+        int segments = (int) Math.max(1, Math.min(nombreSegments, tailleFichier / TAILLE_MIN_SEGMENT));
+        long tailleSegment = tailleFichier / segments;
+        Path cheminSortie = Paths.get(nomFichier);
+        System.out.println("[CLIENT] Téléchargement de " + nomFichier + " (" + tailleFichier + " octets) en "
+            + segments + " segment(s)...");
+
+        // Les segments écrivent dans le désordre : le fichier partiel n'a aucun préfixe
+        // fiable tant qu'il n'est pas complet, ce que dit son marqueur (0 octet reçu)
+        Path partiel = fichierPartiel(cheminSortie);
+        Path marqueur = fichierMarqueur(partiel);
+        ExecutorService executeur = Executors.newFixedThreadPool(segments);
+        SuiviProgression suivi = new SuiviProgression(nomFichier, 0, tailleFichier, ecouteursProgression);
+        long debutChrono = System.nanoTime();
+        try {
+            Files.write(marqueur, new byte[Long.BYTES]);
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Erreur lors de l'écriture du fichier : " + e.getMessage());
+            executeur.shutdownNow();
+            suivi.terminer();
+            return false;
+        }
+        long octetsRecus = -1;
+        try (FileChannel sortie = FileChannel.open(partiel,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<Long>> resultats = new ArrayList<>();
+            for (int i = 0; i < segments; i++) {
+                long debut = i * tailleSegment;
+                long longueur = i == segments - 1 ? tailleFichier - debut : tailleSegment;
+                resultats.add(executeur.submit(new Segment(this, nomFichier, debut, longueur,
+                    i == segments - 1, sortie, suivi)));
+            }
+
+            long total = 0;
+            for (Future<Long> resultat : resultats) {
+                total += resultat.get();
+            }
+            octetsRecus = total;
+        } catch (ExecutionException e) {
+            System.err.println("[ERREUR] Échec d'un segment : " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("[ERREUR] Téléchargement interrompu");
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Erreur lors de l'écriture du fichier : " + e.getMessage());
+        } finally {
+            executeur.shutdownNow();
+            suivi.terminer();
+        }
+        if (octetsRecus < 0) {
+            return false;
+        }
+
+        try {
+            Files.move(partiel, cheminSortie, StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(marqueur);
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Erreur lors de l'écriture du fichier : " + e.getMessage());
+            return false;
+        }
+        double secondes = Math.max(System.nanoTime() - debutChrono, 1) / 1e9;
+        System.out.println(String.format("[CLIENT] Fichier téléchargé avec succès : %s (%d octets en %.2f s, %.1f Mo/s, %d segment(s))",
+            cheminSortie.toAbsolutePath(), octetsRecus, secondes, octetsRecus / secondes / (1024 * 1024), segments));
+        return true;
+    }
+
+    /**
+     * Envoie la commande MODE pour choisir le mode de transfert
+     * S : flux (une connexion de données par transfert), B : bloc (connexion conservée),
+     * Z : compressé (deflate)
+     *
+     * @param mode Code du mode (S, B ou Z)
+     * @return Réponse du serveur
+     */
+    public String envoyerMode(String mode) {
+        String reponse = envoyerCommande("MODE " + mode.toUpperCase());
+        appliquerMode(mode, reponse);
+        return reponse;
+    }
+
+    /**
+     * Applique le mode de transfert accepté par le serveur
+     *
+     * @param mode Code du mode demandé
+     * @param reponse Réponse du serveur à MODE
+     */
+    private void appliquerMode(String mode, String reponse) {
+        if (reponse != null && reponse.startsWith("200")) {
+            modeBloc = mode.trim().equalsIgnoreCase("B");
+            modeCompresse = mode.trim().equalsIgnoreCase("Z");
+            if (!modeBloc) {
+                fermerConnexionDonnees();
+            }
         }
     }
 
@@ -379,6 +1080,119 @@ public class ClientFTP {
         return reponse;
     }
 
+    /**
+     * Envoie plusieurs commandes en une seule écriture (pipeline), puis lit leurs
+     * réponses dans l'ordre : la séquence ne coûte qu'un aller-retour réseau
+     * au lieu d'un par commande.
+     * Les commandes USER, PASS, PORT et PASV ont le même effet que leurs méthodes
+     * dédiées. LIST, RETR et MRET ne sont acceptées qu'en dernière position : leur
+     * transfert est alors effectué comme avec envoyerList, envoyerRetr et envoyerMret.
+     * REST est refusée : une reprise doit partir du fichier partiel local, ce dont seul
+     * envoyerRetr s'assure.
+     *
+     * @param commandes Commandes à envoyer, dans l'ordre
+     * @return Réponses du serveur, dans l'ordre des commandes (null en cas d'erreur)
+     */
+    public List<String> envoyerLot(List<String> commandes) {
+        if (!estConnecte) {
+            System.err.println("[ERREUR] Non connecté au serveur");
+            return null;
+        }
+
+        // Préparer le lot : PORT sans argument ouvre le port local du mode actif
+        List<String> lignes = new ArrayList<>();
+        for (int i = 0; i < commandes.size(); i++) {
+            String commande = commandes.get(i).trim();
+            if (commande.isEmpty()) {
+                continue;
+            }
+            String verbe = commande.split(" ", 2)[0].toUpperCase();
+            if ((verbe.equals("LIST") || verbe.equals("RETR") || verbe.equals("MRET")) && i < commandes.size() - 1) {
+                System.err.println("[ERREUR] " + verbe + " doit être la dernière commande du lot");
+                return null;
+            }
+            if (verbe.equals("REST")) {
+                System.err.println("[ERREUR] REST n'est pas accepté dans un lot (utiliser get pour reprendre)");
+                return null;
+            }
+            if (verbe.equals("PORT") || verbe.equals("PASV")) {
+                // Nouvelles coordonnées : le serveur ferme la connexion conservée en mode bloc
+                fermerConnexionDonnees();
+            }
+            if (verbe.equals("PORT") && commande.length() == 4) {
+                String argument = preparerModeActif();
+                if (argument == null) {
+                    return null;
+                }
+                commande = "PORT " + argument;
+            }
+            lignes.add(commande);
+        }
+
+        StringBuilder lot = new StringBuilder();
+        for (String commande : lignes) {
+            System.out.println("[CLIENT] Envoi : " + commande);
+            lot.append(commande).append(System.lineSeparator());
+        }
+        ecrivain.print(lot);
+        ecrivain.flush();
+
+        List<String> reponses = new ArrayList<>();
+        try {
+            for (String commande : lignes) {
+                String[] parties = commande.split(" ", 2);
+                String verbe = parties[0].toUpperCase();
+                String reponse = lireReponse();
+                System.out.println("[CLIENT] Réponse : " + reponse);
+
+                switch (verbe) {
+                    case "USER":
+                    case "PASS":
+                        memoriserIdentifiant(verbe, parties.length > 1 ? parties[1] : "", reponse);
+                        if (reponse != null && reponse.startsWith("230")) {
+                            estAuthentifie = true;
+                        }
+                        break;
+                    case "CWD":
+                        if (reponse != null && reponse.startsWith("250") && parties.length > 1) {
+                            cheminDistant.add(parties[1]);
+                        }
+                        break;
+                    case "PORT":
+                        if (reponse != null && reponse.startsWith("200")) {
+                            modeTransfert = "actif";
+                        }
+                        break;
+                    case "MODE":
+                        appliquerMode(parties.length > 1 ? parties[1] : "", reponse);
+                        break;
+                    case "PASV":
+                        configurerModePassif(reponse);
+                        break;
+                    case "LIST":
+                        reponse = recevoirListe(reponse);
+                        break;
+                    case "RETR":
+                        reponse = recevoirFichier(parties.length > 1 ? parties[1] : "", 0, reponse);
+                        break;
+                    case "MRET":
+                        reponse = recevoirArchive(reponse);
+                        break;
+                    case "QUIT":
+                        deconnecter();
+                        break;
+                    default:
+                        break;
+                }
+                reponses.add(reponse);
+            }
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Erreur lors de la lecture des réponses du lot : " + e.getMessage());
+            return null;
+        }
+        return reponses;
+    }
+
     /**
      * Envoie une commande quelconque au serveur
      *
@@ -413,7 +1227,33 @@ public class ClientFTP {
      * @throws IOException Si erreur de lecture
      */
     private String lireReponse() throws IOException {
-        return lecteur.readLine();
+        return lireReponse(lecteur);
+    }
+
+    /**
+     * Lit une réponse complète (éventuellement multi-lignes) sur une connexion de contrôle
+     *
+     * @param lecteur Lecteur de la connexion de contrôle
+     * @return Réponse lue
+     * @throws IOException Si erreur de lecture
+     */
+    private static String lireReponse(BufferedReader lecteur) throws IOException {
+        String reponse = lecteur.readLine();
+
+        // Réponse multi-lignes : "xyz-..." jusqu'à la ligne "xyz ..."
+        if (reponse != null && reponse.length() > 3 && reponse.charAt(3) == '-') {
+            String fin = reponse.substring(0, 3) + " ";
+            StringBuilder complete = new StringBuilder(reponse);
+            String ligne;
+            while ((ligne = lecteur.readLine()) != null) {
+                complete.append('\n').append(ligne);
+                if (ligne.startsWith(fin)) {
+                    break;
+                }
+            }
+            reponse = complete.toString();
+        }
+        return reponse;
     }
 
     /**
@@ -422,18 +1262,33 @@ public class ClientFTP {
      * @return true si succès, false sinon
      */
     private boolean etablirConnexionDonnees() {
+        if (modeBloc && socketDonnees != null && !socketDonnees.isClosed()) {
+            // Mode bloc : connexion conservée depuis le transfert précédent
+            return true;
+        }
+        long debut = System.nanoTime();
         try {
             if ("actif".equals(modeTransfert)) {
                 // Mode actif : attendre la connexion du serveur
                 System.out.println("[CLIENT] Attente de la connexion du serveur en mode actif...");
                 socketDonnees = socketServeurActif.accept();
+                reglageDonnees = new ReglageTransfert(socketDonnees, System.nanoTime() - debut, modeBloc);
                 System.out.println("[CLIENT] Connexion de données établie en mode actif");
                 return true;
 
             } else if ("passif".equals(modeTransfert)) {
-                // Mode passif : se connecter au serveur
+                // Mode passif : se connecter au serveur (la durée de connect() estime le RTT)
                 System.out.println("[CLIENT] Connexion au serveur en mode passif...");
-                socketDonnees = new Socket(adresseServeurPassif, portServeurPassif);
+                SocketChannel canal = SocketChannel.open();
+                try {
+                    ReglageTransfert.preparer(canal.socket());
+                    canal.connect(new InetSocketAddress(adresseServeurPassif, portServeurPassif));
+                } catch (IOException e) {
+                    canal.close();
+                    throw e;
+                }
+                socketDonnees = canal.socket();
+                reglageDonnees = new ReglageTransfert(socketDonnees, System.nanoTime() - debut, modeBloc);
                 System.out.println("[CLIENT] Connexion de données établie en mode passif");
                 return true;
             } else {
@@ -447,22 +1302,81 @@ public class ClientFTP {
         }
     }
 
+    /**
+     * Ouvre le flux de lecture du prochain transfert
+     * En mode bloc, le flux s'arrête à la fin du fichier sans fermer la connexion.
+     * En mode compressé, les données sont décompressées au fil de la lecture.
+     *
+     * @return Flux des données du transfert
+     * @throws IOException Si la connexion de données est fermée
+     */
+    private InputStream ouvrirFluxDonnees() throws IOException {
+        InputStream flux = socketDonnees.getInputStream();
+        if (modeBloc) {
+            return new ModeBloc.Entree(flux);
+        }
+        return modeCompresse ? new ModeCompresse.Entree(flux) : flux;
+    }
+
+    /**
+     * Termine un transfert : la connexion de données est fermée, sauf en mode bloc
+     * où elle est conservée pour le transfert suivant
+     *
+     * @throws IOException Si erreur lors de la fermeture
+     */
+    private void terminerConnexionDonnees() throws IOException {
+        if (!modeBloc && socketDonnees != null) {
+            socketDonnees.close();
+        }
+    }
+
+    /**
+     * Ferme la connexion de données conservée en mode bloc, s'il y en a une
+     */
+    private void fermerConnexionDonnees() {
+        if (socketDonnees != null && !socketDonnees.isClosed()) {
+            try {
+                socketDonnees.close();
+            } catch (IOException e) {
+                // Rien à faire
+            }
+        }
+    }
+
     // ==================== MÉTHODE MAIN ====================
 
     /**
      * Point d'entrée du client FTP
      * Interface en ligne de commande interactive
      *
-     * @param args Arguments de la ligne de commande (non utilisés)
+     * @param args Arguments de la ligne de commande (--sans-zero-copie : réception par tampon,
+     *             --progression / --sans-progression : forcer ou masquer l'affichage de la progression)
      */
     public static void main(String[] args) {
+        for (String option : args) {
+            if (option.equals("--sans-zero-copie")) {
+                receptionZeroCopie = false;
+            } else if (option.equals("--progression")) {
+                afficherProgression = true;
+            } else if (option.equals("--sans-progression")) {
+                afficherProgression = false;
+            } else {
+                System.err.println("[ERREUR] Option inconnue ignorée : " + option);
+            }
+        }
+
         System.out.println("===================================");
         System.out.println("  CLIENT FTP - TP2 Exercices 1-4");
         System.out.println("===================================");
         System.out.println("Connexion au serveur : " + HOTE_SERVEUR + ":" + PORT_SERVEUR);
+        System.out.println("Réception sans copie : " + (receptionZeroCopie ? "activée" : "désactivée"));
+        System.out.println("Progression : " + (afficherProgression ? "affichée" : "masquée"));
         System.out.println("===================================\n");
 
         ClientFTP client = new ClientFTP();
+        if (afficherProgression) {
+            client.ajouterEcouteurProgression(SuiviProgression.CONSOLE);
+        }
 
         // Connexion au serveur
         if (!client.connecter()) {
@@ -548,6 +1462,70 @@ public class ClientFTP {
                     }
                     break;
 
+                case "pget":
+                    if (argument.isEmpty()) {
+                        System.out.println("Usage : pget <fichier> [segments]");
+                    } else if (!client.estAuthentifie) {
+                        System.out.println("[ERREUR] Vous devez vous authentifier d'abord");
+                    } else {
+                        String[] elements = argument.split(" ");
+                        int segments = SEGMENTS_PAR_DEFAUT;
+                        String fichier = argument;
+                        if (elements.length > 1 && elements[elements.length - 1].matches("\\d+")) {
+                            segments = Math.max(1, Integer.parseInt(elements[elements.length - 1]));
+                            fichier = argument.substring(0, argument.lastIndexOf(' '));
+                        }
+                        client.telechargerEnParallele(fichier, segments);
+                    }
+                    break;
+
+                case "mget":
+                case "rget":
+                    if (argument.isEmpty()) {
+                        System.out.println("Usage : " + commande + " [-z] <" + (commande.equals("mget") ? "motif" : "dossier") + ">");
+                    } else if (!client.estAuthentifie) {
+                        System.out.println("[ERREUR] Vous devez vous authentifier d'abord");
+                    } else if (client.modeTransfert == null) {
+                        System.out.println("[ERREUR] Vous devez configurer le mode de transfert (PORT ou PASV)");
+                    } else {
+                        client.envoyerMret(argument);
+                    }
+                    break;
+
+                case "put":
+                case "append":
+                    if (argument.isEmpty()) {
+                        System.out.println("Usage : " + commande + " <fichier_local> [nom_distant]");
+                    } else if (!client.estAuthentifie) {
+                        System.out.println("[ERREUR] Vous devez vous authentifier d'abord");
+                    } else if (client.modeTransfert == null) {
+                        System.out.println("[ERREUR] Vous devez configurer le mode de transfert (PORT ou PASV)");
+                    } else {
+                        String[] elements = argument.split(" ", 2);
+                        String nomDistant = elements.length > 1
+                            ? elements[1].trim()
+                            : Paths.get(elements[0]).getFileName().toString();
+                        client.envoyerStor(elements[0], nomDistant, commande.equals("append"));
+                    }
+                    break;
+
+                case "lot":
+                    if (argument.isEmpty()) {
+                        System.out.println("Usage : lot <cmd1>; <cmd2>; ...");
+                    } else {
+                        client.envoyerLot(Arrays.asList(argument.split(";")));
+                        continuer = client.estConnecte;
+                    }
+                    break;
+
+                case "mode":
+                    if (argument.isEmpty()) {
+                        System.out.println("Usage : mode <S|B|Z>");
+                    } else {
+                        client.envoyerMode(argument);
+                    }
+                    break;
+
                 case "quit":
                 case "exit":
                     client.envoyerQuit();
@@ -581,10 +1559,21 @@ public class ClientFTP {
         System.out.println("\nMODE DE TRANSFERT (Exercice 2) :");
         System.out.println("  port           : Activer le mode actif");
         System.out.println("  pasv           : Activer le mode passif");
+        System.out.println("  mode <S|B|Z>   : Mode flux (S), bloc (B, connexion de données conservée)");
+        System.out.println("                   ou compressé (Z, deflate)");
         System.out.println("\nMANIPULATION DE FICHIERS (Exercice 3) :");
         System.out.println("  list / ls      : Lister les fichiers du répertoire");
         System.out.println("  cwd / cd <dir> : Changer de répertoire");
         System.out.println("  retr / get <f> : Télécharger un fichier");
+        System.out.println("  pget <f> [n]   : Télécharger un fichier en n segments parallèles (défaut : 4)");
+        System.out.println("  mget [-z] <m>  : Télécharger les fichiers d'un motif (ex. *.txt, documents/*)");
+        System.out.println("  rget [-z] <d>  : Télécharger un dossier et ses sous-dossiers");
+        System.out.println("                   (-z : archive compressée)");
+        System.out.println("  put <f> [d]    : Téléverser un fichier local (sous le nom d, par défaut le même)");
+        System.out.println("  append <f> [d] : Ajouter un fichier local à la fin d'un fichier distant");
+        System.out.println("\nPIPELINE :");
+        System.out.println("  lot <c1>; <c2> : Envoyer plusieurs commandes FTP d'un coup");
+        System.out.println("                   (ex. : lot USER foo; PASS bar; CWD documents; PASV; LIST)");
         System.out.println("\nAUTRES :");
         System.out.println("  quit / exit    : Se déconnecter et quitter");
         System.out.println("  help / aide    : Afficher cette aide");
@@ -593,4 +1582,125 @@ public class ClientFTP {
         System.out.println("  - foo (mot de passe : bar)");
         System.out.println("==================================\n");
     }
+
+    // ==================== TYPES INTERNES ====================
+
+    /**
+     * Segment d'un téléchargement parallèle : une session complète (contrôle et données)
+     * Les commandes sont envoyées en une seule écriture (pipeline), puis les réponses
+     * sont vérifiées dans l'ordre. Un segment qui n'est pas le dernier ferme sa
+     * connexion de données dès que sa plage est reçue.
+     */
+    private static final class Segment implements Callable<Long> {
+        private final String nomUtilisateur;
+        private final String motDePasse;
+        private final List<String> cheminDistant;
+        private final String nomFichier;
+        private final long debut;
+        private final long longueur;
+        private final boolean dernier;
+        private final FileChannel sortie;
+        private final SuiviProgression suivi;
+
+        Segment(ClientFTP client, String nomFichier, long debut, long longueur, boolean dernier, FileChannel sortie,
+                SuiviProgression suivi) {
+            this.nomUtilisateur = client.nomUtilisateur;
+            this.motDePasse = client.motDePasse;
+            this.cheminDistant = new ArrayList<>(client.cheminDistant);
+            this.nomFichier = nomFichier;
+            this.debut = debut;
+            this.longueur = longueur;
+            this.dernier = dernier;
+            this.sortie = sortie;
+            this.suivi = suivi;
+        }
+
+        @Override
+        public Long call() throws IOException {
+            try (Socket controle = new Socket(HOTE_SERVEUR, PORT_SERVEUR)) {
+                BufferedReader lecteurSegment = new BufferedReader(new InputStreamReader(controle.getInputStream()));
+                Writer ecrivainSegment = new OutputStreamWriter(controle.getOutputStream());
+
+                StringBuilder lot = new StringBuilder();
+                lot.append("USER ").append(nomUtilisateur).append("\r\n");
+                if (motDePasse != null) {
+                    lot.append("PASS ").append(motDePasse).append("\r\n");
+                }
+                for (String dossier : cheminDistant) {
+                    lot.append("CWD ").append(dossier).append("\r\n");
+                }
+                lot.append("PASV\r\n");
+                lot.append("REST ").append(debut).append("\r\n");
+                lot.append("RETR ").append(nomFichier).append("\r\n");
+                ecrivainSegment.write(lot.toString());
+                ecrivainSegment.flush();
+
+                attendre(lecteurSegment, "220");
+                attendre(lecteurSegment, motDePasse != null ? "331" : "230");
+                if (motDePasse != null) {
+                    attendre(lecteurSegment, "230");
+                }
+                for (int i = 0; i < cheminDistant.size(); i++) {
+                    attendre(lecteurSegment, "250");
+                }
+                InetSocketAddress adresse = analyserPasv(attendre(lecteurSegment, "227"));
+                if (adresse == null) {
+                    throw new IOException("réponse PASV invalide");
+                }
+                attendre(lecteurSegment, "350");
+                long disponibles = Long.parseLong(attendre(lecteurSegment, "213").substring(3).trim());
+                if (disponibles < longueur) {
+                    throw new IOException("fichier modifié pendant le téléchargement");
+                }
+                attendre(lecteurSegment, "1");
+
+                // Socket lue directement dans un tampon direct du pool, sans passer par le tas
+                long recus = 0;
+                ByteBuffer tampon = PoolTampons.acquerir(TAILLE_TAMPON_SEGMENT);
+                try (SocketChannel donnees = SocketChannel.open(
+                        new InetSocketAddress(adresse.getHostString(), adresse.getPort()))) {
+                    while (recus < longueur) {
+                        tampon.clear();
+                        tampon.limit((int) Math.min(tampon.capacity(), longueur - recus));
+                        int lus = donnees.read(tampon);
+                        if (lus < 0) {
+                            throw new EOFException("segment incomplet à la position " + (debut + recus));
+                        }
+                        tampon.flip();
+                        while (tampon.hasRemaining()) {
+                            sortie.write(tampon, debut + recus + tampon.position());
+                        }
+                        recus += lus;
+                        suivi.avancer(lus);
+                    }
+                } finally {
+                    PoolTampons.liberer(tampon);
+                }
+
+                // Le dernier segment reçoit tout le fichier restant : le serveur confirme par 226
+                if (dernier) {
+                    attendre(lecteurSegment, "226");
+                }
+                ecrivainSegment.write("QUIT\r\n");
+                ecrivainSegment.flush();
+                return recus;
+            }
+        }
+
+        /**
+         * Lit la réponse suivante et vérifie son code
+         *
+         * @param lecteurSegment Lecteur de la connexion de contrôle du segment
+         * @param code Début attendu de la réponse
+         * @return Réponse lue
+         * @throws IOException Si la réponse est absente ou inattendue
+         */
+        private static String attendre(BufferedReader lecteurSegment, String code) throws IOException {
+            String reponse = lireReponse(lecteurSegment);
+            if (reponse == null || !reponse.startsWith(code)) {
+                throw new IOException("réponse inattendue : " + reponse);
+            }
+            return reponse;
+        }
+    }
 }
@@ -0,0 +1,253 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * DecodeurCommandes - Décodage des commandes FTP au niveau des octets
+ *
+ * Les lignes sont découpées directement dans le ByteBuffer de réception, sans
+ * passer par BufferedReader.readLine, trim, split et toUpperCase. Le verbe (4 lettres
+ * au plus, insensible à la casse) est codé dans un int qui sert de clé à la table
+ * des commandes de ServeurFTP. Seul l'argument, s'il est présent, donne lieu à la
+ * création d'une chaîne.
+ *
+ * Une ligne qui ne tient pas dans le tampon de réception est abandonnée en entier :
+ * après ignorerLigne(), les octets sont écartés jusqu'à la fin de ligne suivante, puis
+ * la ligne est signalée une seule fois par le verbe VERBE_LIGNE_TROP_LONGUE. La fin
+ * d'une ligne trop longue n'est donc jamais prise pour une nouvelle commande.
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public final class DecodeurCommandes {
+
+    // ==================== CONSTANTES ====================
+
+    /** Code des verbes inconnus (trop longs ou contenant autre chose que des lettres) */
+    public static final int VERBE_INCONNU = 0;
+
+    /** Code signalant une ligne abandonnée car plus longue que le tampon de réception */
+    public static final int VERBE_LIGNE_TROP_LONGUE = -1;
+
+    /** Longueur maximale d'un verbe */
+    private static final int LONGUEUR_MAX_VERBE = 4;
+
+    /** Argument des commandes sans argument */
+    private static final String SANS_ARGUMENT = "";
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Jeu de caractères des arguments (celui des réponses) */
+    private final Charset jeuCaracteres = Charset.defaultCharset();
+
+    /** Code du verbe de la dernière commande décodée */
+    private int verbe;
+
+    /** Argument de la dernière commande décodée */
+    private String argument = SANS_ARGUMENT;
+
+    /** Ligne trop longue en cours d'abandon : octets écartés jusqu'à la fin de ligne */
+    private boolean ligneTropLongue;
+
+    // ==================== MÉTHODES PRINCIPALES ====================
+
+    /**
+     * Extrait la prochaine commande complète du tampon
+     * Les lignes vides sont ignorées. Si aucune ligne complète n'est disponible,
+     * la position du tampon n'est pas modifiée.
+     *
+     * @param tampon Tampon en mode lecture (entre position et limite)
+     * @return true si une commande a été décodée (voir verbe() et argument())
+     */
+    public boolean extraire(ByteBuffer tampon) {
+        if (ligneTropLongue) {
+            int finLigne = chercherFinLigne(tampon, tampon.position());
+            if (finLigne < 0) {
+                tampon.position(tampon.limit()); // Toujours dans la ligne abandonnée
+                return false;
+            }
+            tampon.position(finLigne + 1);
+            return signalerLigneTropLongue();
+        }
+        while (true) {
+            int debut = tampon.position();
+            int finLigne = chercherFinLigne(tampon, debut);
+            if (finLigne < 0) {
+                return false;
+            }
+            tampon.position(finLigne + 1);
+            if (decoder(tampon, debut, finLigne)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Extrait la dernière commande d'un flux terminé sans fin de ligne
+     *
+     * @param tampon Tampon en mode lecture
+     * @return true si une commande a été décodée
+     */
+    public boolean extraireReste(ByteBuffer tampon) {
+        int debut = tampon.position();
+        int fin = tampon.limit();
+        tampon.position(fin);
+        if (ligneTropLongue) {
+            return signalerLigneTropLongue();
+        }
+        return decoder(tampon, debut, fin);
+    }
+
+    /**
+     * Abandonne la ligne en cours, qui remplit tout le tampon de réception
+     * L'appelant vide ensuite le tampon ; la suite de la ligne sera écartée par extraire().
+     */
+    public void ignorerLigne() {
+        ligneTropLongue = true;
+    }
+
+    /**
+     * Code du verbe de la dernière commande décodée
+     *
+     * @return Code du verbe, ou VERBE_INCONNU
+     */
+    public int verbe() {
+        return verbe;
+    }
+
+    /**
+     * Argument de la dernière commande décodée
+     *
+     * @return Argument (chaîne vide si absent)
+     */
+    public String argument() {
+        return argument;
+    }
+
+    /**
+     * Calcule le code d'un verbe (utilisé pour construire la table des commandes)
+     *
+     * @param nom Verbe en lettres ASCII
+     * @return Code du verbe, ou VERBE_INCONNU
+     */
+    public static int coder(String nom) {
+        if (nom.isEmpty() || nom.length() > LONGUEUR_MAX_VERBE) {
+            return VERBE_INCONNU;
+        }
+        int code = 0;
+        for (int i = 0; i < nom.length(); i++) {
+            int lettre = majuscule(nom.charAt(i));
+            if (lettre < 0) {
+                return VERBE_INCONNU;
+            }
+            code = (code << 8) | lettre;
+        }
+        return code;
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Termine l'abandon d'une ligne trop longue et la signale comme commande
+     *
+     * @return true (verbe VERBE_LIGNE_TROP_LONGUE, sans argument)
+     */
+    private boolean signalerLigneTropLongue() {
+        ligneTropLongue = false;
+        verbe = VERBE_LIGNE_TROP_LONGUE;
+        argument = SANS_ARGUMENT;
+        return true;
+    }
+
+    /**
+     * Décode la ligne [debut, fin[ du tampon (fin de ligne exclue)
+     *
+     * @param tampon Tampon contenant la ligne
+     * @param debut Indice du premier octet
+     * @param fin Indice suivant le dernier octet
+     * @return true si la ligne n'est pas vide
+     */
+    private boolean decoder(ByteBuffer tampon, int debut, int fin) {
+        // Équivalent de trim() : espaces et caractères de contrôle (dont \r) aux extrémités
+        while (debut < fin && (tampon.get(debut) & 0xFF) <= ' ') {
+            debut++;
+        }
+        while (fin > debut && (tampon.get(fin - 1) & 0xFF) <= ' ') {
+            fin--;
+        }
+        if (debut == fin) {
+            return false;
+        }
+
+        // Verbe : jusqu'au premier espace
+        int code = 0;
+        int longueur = 0;
+        int i = debut;
+        for (; i < fin && tampon.get(i) != ' '; i++, longueur++) {
+            int lettre = majuscule(tampon.get(i));
+            if (lettre < 0 || longueur >= LONGUEUR_MAX_VERBE) {
+                code = VERBE_INCONNU;
+                longueur = LONGUEUR_MAX_VERBE + 1;
+            } else if (longueur <= LONGUEUR_MAX_VERBE) {
+                code = (code << 8) | lettre;
+            }
+        }
+        verbe = longueur > LONGUEUR_MAX_VERBE ? VERBE_INCONNU : code;
+
+        // Argument : tout ce qui suit le premier espace
+        if (i + 1 < fin) {
+            argument = creerChaine(tampon, i + 1, fin);
+        } else {
+            argument = SANS_ARGUMENT;
+        }
+        return true;
+    }
+
+    /**
+     * Crée la chaîne correspondant aux octets [debut, fin[ du tampon
+     *
+     * @param tampon Tampon source
+     * @param debut Indice du premier octet
+     * @param fin Indice suivant le dernier octet
+     * @return Chaîne décodée
+     */
+    private String creerChaine(ByteBuffer tampon, int debut, int fin) {
+        if (tampon.hasArray()) {
+            return new String(tampon.array(), tampon.arrayOffset() + debut, fin - debut, jeuCaracteres);
+        }
+        byte[] octets = new byte[fin - debut];
+        tampon.get(debut, octets);
+        return new String(octets, jeuCaracteres);
+    }
+
+    /**
+     * Cherche le prochain saut de ligne
+     *
+     * @param tampon Tampon en mode lecture
+     * @param debut Indice de départ
+     * @return Indice du saut de ligne, ou -1
+     */
+    private static int chercherFinLigne(ByteBuffer tampon, int debut) {
+        for (int i = debut; i < tampon.limit(); i++) {
+            if (tampon.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Convertit une lettre ASCII en majuscule
+     *
+     * @param caractere Octet ou caractère
+     * @return Lettre majuscule, ou -1 si ce n'est pas une lettre ASCII
+     */
+    private static int majuscule(int caractere) {
+        if (caractere >= 'a' && caractere <= 'z') {
+            return caractere - ('a' - 'A');
+        }
+        if (caractere >= 'A' && caractere <= 'Z') {
+            return caractere;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,363 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * EcouteursPassifs - Écouteurs passifs permanents partagés par toutes les sessions
+ *
+ * Au lieu d'ouvrir une socket d'écoute à chaque PASV, le serveur garde quelques
+ * sockets d'écoute ouvertes pendant toute son exécution. Chaque connexion de données
+ * entrante est attribuée à la session qui l'attend, identifiée par le port d'écoute
+ * et l'adresse du client. Les connexions arrivées avant que la session ne les attende
+ * sont mises de côté quelques secondes, pour cette session uniquement.
+ *
+ * Un écouteur n'est annoncé qu'à une seule session par adresse de client : plusieurs
+ * sessions derrière une même adresse (NAT), éventuellement d'utilisateurs différents,
+ * ne peuvent donc jamais recevoir la connexion de données l'une de l'autre. Lorsque
+ * tous les écouteurs sont déjà annoncés à cette adresse, choisirPort retourne 0 et la
+ * session utilise une socket d'écoute dédiée. Une connexion reçue d'une adresse à
+ * laquelle l'écouteur n'est pas annoncé est fermée aussitôt ; les connexions mises de
+ * côté pour une session sont fermées lorsqu'elle relâche l'écouteur.
+ *
+ * Métriques exposées : ecouteurs.passifs.attentes, ecouteurs.passifs.orphelines
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public class EcouteursPassifs {
+
+    // ==================== CONSTANTES ====================
+
+    /** Durée de conservation d'une connexion arrivée sans session en attente (ms) */
+    private static final long DUREE_CONSERVATION_ORPHELINE = 10_000;
+
+    /** Pause après un échec d'acceptation, doublée à chaque échec consécutif (ms) */
+    private static final long PAUSE_ECHEC_MIN = 10;
+
+    /** Pause maximale entre deux tentatives d'acceptation en échec (ms) */
+    private static final long PAUSE_ECHEC_MAX = 1_000;
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Sockets d'écoute permanentes */
+    private final List<ServerSocket> ecouteurs = new ArrayList<>();
+
+    /** Attentes et connexions en suspens, par (port d'écoute, adresse du client) */
+    private final Map<Cle, EnSuspens> table = new HashMap<>();
+
+    /** Couples (port d'écoute, adresse du client) annoncés à une session */
+    private final Set<Cle> annonces = new HashSet<>();
+
+    /** Indice de départ pour la répartition des sessions sur les écouteurs */
+    private final AtomicInteger prochainEcouteur = new AtomicInteger();
+
+    /** Nombre de sessions en attente d'une connexion */
+    private final AtomicInteger attentes = new AtomicInteger();
+
+    /** Nombre de connexions reçues sans session en attente */
+    private final AtomicInteger orphelines = new AtomicInteger();
+
+    // ==================== CONSTRUCTEUR ====================
+
+    /**
+     * Ouvre les écouteurs permanents sur des ports pris dans le pool des ports passifs
+     *
+     * @param nombre Nombre d'écouteurs à ouvrir
+     * @param ports Pool des ports passifs
+     * @throws IOException Si aucun écouteur n'a pu être ouvert
+     */
+    public EcouteursPassifs(int nombre, PoolPortsPassifs ports) throws IOException {
+        for (int i = 0; i < nombre; i++) {
+            ServerSocket ecouteur = ports.acquerir();
+            if (ecouteur == null) {
+                break;
+            }
+            ecouteurs.add(ecouteur);
+
+            Thread thread = new Thread(() -> accepter(ecouteur), "ecouteur-passif-" + ecouteur.getLocalPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        if (ecouteurs.isEmpty()) {
+            throw new IOException("aucun port passif disponible");
+        }
+
+        MetriquesFTP.enregistrer("ecouteurs.passifs.attentes", attentes::get);
+        MetriquesFTP.enregistrer("ecouteurs.passifs.orphelines", orphelines::get);
+    }
+
+    // ==================== MÉTHODES PRINCIPALES ====================
+
+    /**
+     * Choisit l'écouteur à annoncer à un client lors de PASV
+     * Seul un écouteur qui n'est annoncé à aucune autre session de ce client convient.
+     *
+     * @param client Adresse du client
+     * @return Port de l'écouteur choisi, ou 0 si tous sont déjà annoncés à ce client
+     */
+    public int choisirPort(InetAddress client) {
+        int depart = Math.floorMod(prochainEcouteur.getAndIncrement(), ecouteurs.size());
+        synchronized (table) {
+            for (int i = 0; i < ecouteurs.size(); i++) {
+                int candidat = ecouteurs.get((depart + i) % ecouteurs.size()).getLocalPort();
+                if (annonces.add(new Cle(candidat, client))) {
+                    return candidat;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Indique qu'une session n'utilisera plus l'écouteur choisi par choisirPort
+     * (nouveau PASV ou fin de session) ; les connexions mises de côté pour elle sont fermées
+     *
+     * @param port Port de l'écouteur
+     * @param client Adresse du client
+     */
+    public void relacher(int port, InetAddress client) {
+        Cle cle = new Cle(port, client);
+        synchronized (table) {
+            annonces.remove(cle);
+            EnSuspens enSuspens = table.get(cle);
+            if (enSuspens != null) {
+                Connexion connexion;
+                while ((connexion = enSuspens.connexions.poll()) != null) {
+                    orphelines.decrementAndGet();
+                    fermer(connexion.socket);
+                }
+                nettoyer(cle, enSuspens);
+            }
+        }
+    }
+
+    /**
+     * Attend la prochaine connexion de données d'un client sur un écouteur
+     *
+     * @param port Port de l'écouteur annoncé par PASV
+     * @param client Adresse du client
+     * @param delaiMs Délai d'attente maximal en millisecondes
+     * @return Socket de données connectée
+     * @throws IOException Si aucune connexion n'arrive dans le délai
+     */
+    public Socket attendre(int port, InetAddress client, long delaiMs) throws IOException {
+        Cle cle = new Cle(port, client);
+        CompletableFuture<Socket> attente = new CompletableFuture<>();
+
+        synchronized (table) {
+            EnSuspens enSuspens = table.computeIfAbsent(cle, c -> new EnSuspens());
+            Connexion connexion = enSuspens.connexions.poll();
+            if (connexion != null) {
+                orphelines.decrementAndGet();
+                nettoyer(cle, enSuspens);
+                return connexion.socket;
+            }
+            enSuspens.attentes.add(attente);
+        }
+
+        attentes.incrementAndGet();
+        try {
+            return attente.get(delaiMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            abandonner(cle, attente);
+            throw new SocketTimeoutException("aucune connexion de données reçue");
+        } catch (InterruptedException e) {
+            abandonner(cle, attente);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("attente de la connexion de données interrompue");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            attentes.decrementAndGet();
+        }
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Boucle d'acceptation d'un écouteur
+     * Après un échec (descripteurs épuisés par exemple), la boucle marque une pause
+     * croissante plutôt que de réessayer aussitôt, ce qui occuperait le processeur
+     * et inonderait le journal.
+     *
+     * @param ecouteur Socket d'écoute
+     */
+    private void accepter(ServerSocket ecouteur) {
+        int port = ecouteur.getLocalPort();
+        long pause = 0;
+        while (!ecouteur.isClosed()) {
+            try {
+                Socket socket = ecouteur.accept();
+                pause = 0;
+                attribuer(new Cle(port, socket.getInetAddress()), socket);
+            } catch (IOException e) {
+                if (ecouteur.isClosed()) {
+                    return;
+                }
+                JournalFTP.erreur("Erreur sur l'écouteur passif ", port + " : " + e.getMessage());
+                pause = Math.min(PAUSE_ECHEC_MAX, Math.max(PAUSE_ECHEC_MIN, pause * 2));
+                try {
+                    Thread.sleep(pause);
+                } catch (InterruptedException interruption) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remet une connexion entrante à la session qui l'attend, ou la met de côté pour
+     * elle ; une connexion qu'aucune session n'attend sur cet écouteur est fermée
+     *
+     * @param cle Port d'écoute et adresse du client
+     * @param socket Connexion acceptée
+     */
+    private void attribuer(Cle cle, Socket socket) {
+        synchronized (table) {
+            purgerOrphelines();
+
+            if (!annonces.contains(cle)) {
+                fermer(socket);
+                return;
+            }
+
+            EnSuspens enSuspens = table.computeIfAbsent(cle, c -> new EnSuspens());
+            CompletableFuture<Socket> attente;
+            while ((attente = enSuspens.attentes.poll()) != null) {
+                if (attente.complete(socket)) {
+                    nettoyer(cle, enSuspens);
+                    return;
+                }
+            }
+            enSuspens.connexions.add(new Connexion(socket, System.currentTimeMillis()));
+            orphelines.incrementAndGet();
+        }
+    }
+
+    /**
+     * Retire une attente abandonnée ; une connexion qui lui aurait été attribuée
+     * entre-temps est fermée
+     *
+     * @param cle Clé de l'attente
+     * @param attente Attente abandonnée
+     */
+    private void abandonner(Cle cle, CompletableFuture<Socket> attente) {
+        synchronized (table) {
+            EnSuspens enSuspens = table.get(cle);
+            if (enSuspens != null) {
+                enSuspens.attentes.remove(attente);
+                nettoyer(cle, enSuspens);
+            }
+        }
+        if (!attente.complete(null)) {
+            Socket tardive = attente.getNow(null);
+            if (tardive != null) {
+                fermer(tardive);
+            }
+        }
+    }
+
+    /**
+     * Ferme les connexions mises de côté depuis trop longtemps
+     * Appelée avec le verrou de la table
+     */
+    private void purgerOrphelines() {
+        long limite = System.currentTimeMillis() - DUREE_CONSERVATION_ORPHELINE;
+        Iterator<Map.Entry<Cle, EnSuspens>> iterateur = table.entrySet().iterator();
+        while (iterateur.hasNext()) {
+            EnSuspens enSuspens = iterateur.next().getValue();
+            Connexion connexion;
+            while ((connexion = enSuspens.connexions.peek()) != null && connexion.arrivee < limite) {
+                enSuspens.connexions.poll();
+                orphelines.decrementAndGet();
+                fermer(connexion.socket);
+            }
+            if (enSuspens.estVide()) {
+                iterateur.remove();
+            }
+        }
+    }
+
+    /**
+     * Retire une entrée vide de la table
+     * Appelée avec le verrou de la table
+     *
+     * @param cle Clé de l'entrée
+     * @param enSuspens Entrée
+     */
+    private void nettoyer(Cle cle, EnSuspens enSuspens) {
+        if (enSuspens.estVide()) {
+            table.remove(cle);
+        }
+    }
+
+    /**
+     * Ferme une connexion sans propager d'erreur
+     *
+     * @param socket Connexion à fermer
+     */
+    private static void fermer(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Rien à faire
+        }
+    }
+
+    // ==================== STRUCTURES INTERNES ====================
+
+    /**
+     * Clé de la table : port d'écoute et adresse du client
+     */
+    private static final class Cle {
+        private final int port;
+        private final InetAddress client;
+
+        Cle(int port, InetAddress client) {
+            this.port = port;
+            this.client = client;
+        }
+
+        @Override
+        public boolean equals(Object autre) {
+            if (!(autre instanceof Cle)) {
+                return false;
+            }
+            Cle cle = (Cle) autre;
+            return port == cle.port && client.equals(cle.client);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * port + client.hashCode();
+        }
+    }
+
+    /**
+     * Sessions en attente et connexions arrivées en avance pour une clé
+     */
+    private static final class EnSuspens {
+        private final Deque<CompletableFuture<Socket>> attentes = new ArrayDeque<>();
+        private final Deque<Connexion> connexions = new ArrayDeque<>();
+
+        boolean estVide() {
+            return attentes.isEmpty() && connexions.isEmpty();
+        }
+    }
+
+    /**
+     * Connexion acceptée sans session en attente
+     */
+    private static final class Connexion {
+        private final Socket socket;
+        private final long arrivee;
+
+        Connexion(Socket socket, long arrivee) {
+            this.socket = socket;
+            this.arrivee = arrivee;
+        }
+    }
+}
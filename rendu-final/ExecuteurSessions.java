@@ -0,0 +1,137 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * ExecuteurSessions - Contrôle d'admission des sessions FTP
+ *
+ * Limite le nombre de sessions traitées simultanément et le nombre de sessions
+ * en attente. Lorsque le serveur est saturé, la session est refusée immédiatement
+ * (le serveur répond alors 421) au lieu d'être acceptée sans limite.
+ *
+ * Métriques exposées : sessions.actives, sessions.attente, sessions.rejetees,
+ * sessions.max
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public class ExecuteurSessions {
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Exécuteur sous-jacent des sessions */
+    private final ExecutorService executeur;
+
+    /** File d'attente bornée (null si aucune file, ou si l'exécuteur n'est pas borné) */
+    private final BlockingQueue<Runnable> fileAttente;
+
+    /** Nombre maximal de sessions simultanées (0 = illimité) */
+    private final int sessionsMax;
+
+    /** Nombre de sessions en cours de traitement */
+    private final AtomicInteger sessionsActives = new AtomicInteger();
+
+    /** Nombre de sessions refusées faute de place */
+    private final AtomicLong sessionsRejetees = new AtomicLong();
+
+    // ==================== CONSTRUCTEURS ====================
+
+    /**
+     * Crée un exécuteur dont l'admission se limite au comptage des sessions
+     * (exécuteur illimité, ou sessions sans thread dédié du mode événementiel)
+     *
+     * @param executeur Exécuteur sous-jacent
+     * @param sessionsMax Nombre maximal de sessions ouvertes par ouvrirSession (0 = illimité)
+     */
+    public ExecuteurSessions(ExecutorService executeur, int sessionsMax) {
+        this.executeur = executeur;
+        this.fileAttente = null;
+        this.sessionsMax = sessionsMax;
+        enregistrerMetriques();
+    }
+
+    /**
+     * Crée un exécuteur borné
+     *
+     * @param sessionsMax Nombre maximal de sessions traitées simultanément
+     * @param fileMax Nombre maximal de sessions en attente d'un thread (0 = aucune attente)
+     * @param fabrique Fabrique des threads de session
+     */
+    public ExecuteurSessions(int sessionsMax, int fileMax, ThreadFactory fabrique) {
+        this.fileAttente = fileMax > 0 ? new ArrayBlockingQueue<>(fileMax) : new SynchronousQueue<>();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(sessionsMax, sessionsMax,
+            60, TimeUnit.SECONDS, fileAttente, fabrique, new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        this.executeur = pool;
+        this.sessionsMax = sessionsMax;
+        enregistrerMetriques();
+    }
+
+    // ==================== MÉTHODES PRINCIPALES ====================
+
+    /**
+     * Soumet une session à exécuter
+     *
+     * @param session Traitement complet de la session
+     * @return true si la session est acceptée, false si le serveur est saturé
+     */
+    public boolean soumettre(Runnable session) {
+        try {
+            executeur.execute(() -> {
+                sessionsActives.incrementAndGet();
+                try {
+                    session.run();
+                } finally {
+                    sessionsActives.decrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            sessionsRejetees.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Réserve une place pour une session qui n'occupe pas de thread (mode événementiel)
+     *
+     * @return true si la session est acceptée, false si le serveur est saturé
+     */
+    public boolean ouvrirSession() {
+        while (true) {
+            int actives = sessionsActives.get();
+            if (sessionsMax > 0 && actives >= sessionsMax) {
+                sessionsRejetees.incrementAndGet();
+                return false;
+            }
+            if (sessionsActives.compareAndSet(actives, actives + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Libère la place réservée par ouvrirSession
+     */
+    public void fermerSession() {
+        sessionsActives.decrementAndGet();
+    }
+
+    /**
+     * Retourne l'exécuteur sous-jacent
+     *
+     * @return Exécuteur des sessions
+     */
+    public ExecutorService executeur() {
+        return executeur;
+    }
+
+    /**
+     * Enregistre les métriques de l'exécuteur
+     */
+    private void enregistrerMetriques() {
+        MetriquesFTP.enregistrer("sessions.actives", sessionsActives::get);
+        MetriquesFTP.enregistrer("sessions.attente", () -> fileAttente != null ? fileAttente.size() : 0);
+        MetriquesFTP.enregistrer("sessions.rejetees", sessionsRejetees::get);
+        MetriquesFTP.enregistrer("sessions.max", () -> sessionsMax);
+    }
+}
@@ -0,0 +1,424 @@
+import java.io.*;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JournalFTP - Journal asynchrone du serveur
+ *
+ * Les threads des sessions ne font que déposer leurs messages dans un anneau de
+ * taille fixe (sans verrou, entrées préallouées et réutilisées). Un thread écrivain
+ * unique les met en forme et les écrit sur la sortie standard (ou d'erreur), par
+ * blocs, en vidant le tampon dès que l'anneau est vide. Aucune session ne se bloque
+ * donc sur le verrou de System.out. Si l'anneau est plein, le message est perdu
+ * (et compté) plutôt que de ralentir la session.
+ *
+ * Les messages sous le niveau configuré sont ignorés avant toute mise en forme :
+ * le message et sa valeur sont stockés séparément et concaténés par l'écrivain.
+ *
+ * Le journal des transferts (un enregistrement clé=valeur par transfert terminé)
+ * est écrit dans le même journal ou dans un fichier dédié.
+ *
+ * Une valeur dont toString() échoue fait abandonner son entrée (comptée), jamais
+ * l'écrivain.
+ *
+ * Métriques exposées : journal.ecrits, journal.perdus, journal.echecs
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public final class JournalFTP {
+
+    // ==================== NIVEAUX ====================
+
+    /**
+     * Niveaux du journal, du plus détaillé au plus restrictif
+     */
+    public enum Niveau {
+        /** Commandes reçues et réponses envoyées */
+        DEBUG,
+        /** Événements des sessions et enregistrements des transferts */
+        INFO,
+        /** Erreurs */
+        ERREUR,
+        /** Journal désactivé */
+        AUCUN
+    }
+
+    // ==================== CONSTANTES ====================
+
+    /** Nombre d'entrées de l'anneau (puissance de 2) */
+    private static final int CAPACITE = 1 << 14;
+
+    /** Masque d'indice dans l'anneau */
+    private static final int MASQUE = CAPACITE - 1;
+
+    /** Attente maximale de l'écrivain lorsque l'anneau est vide (ns) */
+    private static final long ATTENTE_MAX = 10_000_000L;
+
+    /** Délai maximal de vidage à l'arrêt du serveur (ms) */
+    private static final long DELAI_VIDAGE_ARRET = 1_000;
+
+    /** Taille des tampons de sortie */
+    private static final int TAILLE_TAMPON_SORTIE = 16 * 1024;
+
+    // ==================== VARIABLES DE CLASSE ====================
+
+    /** Niveau minimal des messages journalisés */
+    private static volatile Niveau niveau = Niveau.INFO;
+
+    /** Entrées de l'anneau */
+    private static final Entree[] ANNEAU = new Entree[CAPACITE];
+
+    /** Séquence publiée dans chaque entrée (l'entrée est lisible quand elle vaut la séquence attendue) */
+    private static final AtomicLongArray PUBLIEES = new AtomicLongArray(CAPACITE);
+
+    /** Prochaine séquence à réserver par un producteur */
+    private static final AtomicLong ECRITURE = new AtomicLong();
+
+    /** Prochaine séquence à lire par l'écrivain */
+    private static volatile long lecture;
+
+    /** Nombre de messages écrits */
+    private static final AtomicLong ECRITS = new AtomicLong();
+
+    /** Nombre de messages perdus (anneau plein) */
+    private static final AtomicLong PERDUS = new AtomicLong();
+
+    /** Nombre d'entrées abandonnées (mise en forme de la valeur en échec) */
+    private static final AtomicLong ECHECS = new AtomicLong();
+
+    /** Sortie des messages DEBUG et INFO */
+    private static final PrintStream SORTIE = new PrintStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), TAILLE_TAMPON_SORTIE), false);
+
+    /** Sortie des messages d'erreur */
+    private static final PrintStream SORTIE_ERREURS = new PrintStream(
+        new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), TAILLE_TAMPON_SORTIE), false);
+
+    /** Sortie du journal des transferts (SORTIE si aucun fichier n'est configuré) */
+    private static volatile PrintStream sortieTransferts = SORTIE;
+
+    /** Thread écrivain */
+    private static final Thread ECRIVAIN;
+
+    static {
+        for (int i = 0; i < CAPACITE; i++) {
+            ANNEAU[i] = new Entree();
+            PUBLIEES.set(i, -1);
+        }
+
+        ECRIVAIN = new Thread(JournalFTP::ecrire, "journal");
+        ECRIVAIN.setDaemon(true);
+        ECRIVAIN.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(JournalFTP::attendreVidage, "journal-arret"));
+
+        MetriquesFTP.enregistrer("journal.ecrits", ECRITS::get);
+        MetriquesFTP.enregistrer("journal.perdus", PERDUS::get);
+        MetriquesFTP.enregistrer("journal.echecs", ECHECS::get);
+    }
+
+    private JournalFTP() {
+        // Classe utilitaire
+    }
+
+    // ==================== CONFIGURATION ====================
+
+    /**
+     * Change le niveau minimal des messages journalisés
+     *
+     * @param nouveauNiveau Niveau minimal
+     */
+    public static void configurer(Niveau nouveauNiveau) {
+        niveau = nouveauNiveau;
+    }
+
+    /**
+     * Écrit le journal des transferts dans un fichier (ajout en fin de fichier)
+     *
+     * @param fichier Chemin du fichier
+     * @throws IOException Si le fichier ne peut pas être ouvert
+     */
+    public static void journaliserTransfertsDans(String fichier) throws IOException {
+        sortieTransferts = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(fichier, true), TAILLE_TAMPON_SORTIE), false);
+    }
+
+    /**
+     * Indique si les messages d'un niveau sont journalisés
+     * (pour éviter de préparer un message coûteux qui serait ignoré)
+     *
+     * @param niveauMessage Niveau du message
+     * @return true si le message serait journalisé
+     */
+    public static boolean actif(Niveau niveauMessage) {
+        return niveauMessage.compareTo(niveau) >= 0 && niveauMessage != Niveau.AUCUN;
+    }
+
+    // ==================== JOURNALISATION ====================
+
+    /**
+     * Journalise un message de niveau DEBUG
+     *
+     * @param message Message
+     */
+    public static void debug(String message) {
+        journaliser(Niveau.DEBUG, message, null, false);
+    }
+
+    /**
+     * Journalise un message de niveau DEBUG suivi d'une valeur
+     * (concaténés par l'écrivain seulement si le niveau est actif)
+     *
+     * @param message Début du message
+     * @param valeur Valeur ajoutée à la fin du message
+     */
+    public static void debug(String message, Object valeur) {
+        journaliser(Niveau.DEBUG, message, valeur, true);
+    }
+
+    /**
+     * Journalise un message de niveau INFO
+     *
+     * @param message Message
+     */
+    public static void info(String message) {
+        journaliser(Niveau.INFO, message, null, false);
+    }
+
+    /**
+     * Journalise un message de niveau INFO suivi d'une valeur
+     *
+     * @param message Début du message
+     * @param valeur Valeur ajoutée à la fin du message
+     */
+    public static void info(String message, Object valeur) {
+        journaliser(Niveau.INFO, message, valeur, true);
+    }
+
+    /**
+     * Journalise une erreur
+     *
+     * @param message Message
+     */
+    public static void erreur(String message) {
+        journaliser(Niveau.ERREUR, message, null, false);
+    }
+
+    /**
+     * Journalise une erreur suivie d'une valeur (en général le message de l'exception)
+     *
+     * @param message Début du message
+     * @param valeur Valeur ajoutée à la fin du message
+     */
+    public static void erreur(String message, Object valeur) {
+        journaliser(Niveau.ERREUR, message, valeur, true);
+    }
+
+    /**
+     * Journalise un transfert terminé (niveau INFO)
+     *
+     * @param transfert Enregistrement du transfert, mis en forme par l'écrivain
+     */
+    public static void transfert(Transfert transfert) {
+        journaliser(Niveau.INFO, null, transfert, true);
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Dépose un message dans l'anneau
+     *
+     * @param niveauMessage Niveau du message
+     * @param message Début du message (null pour un enregistrement de transfert)
+     * @param valeur Valeur ajoutée à la fin du message
+     * @param avecValeur true si la valeur doit être écrite (même null)
+     */
+    private static void journaliser(Niveau niveauMessage, String message, Object valeur, boolean avecValeur) {
+        if (!actif(niveauMessage)) {
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = ECRITURE.get();
+            if (sequence - lecture >= CAPACITE) {
+                PERDUS.incrementAndGet();
+                return;
+            }
+        } while (!ECRITURE.compareAndSet(sequence, sequence + 1));
+
+        int indice = (int) sequence & MASQUE;
+        Entree entree = ANNEAU[indice];
+        entree.niveau = niveauMessage;
+        entree.message = message;
+        entree.valeur = valeur;
+        entree.avecValeur = avecValeur;
+        PUBLIEES.set(indice, sequence);
+    }
+
+    /**
+     * Boucle du thread écrivain
+     */
+    private static void ecrire() {
+        long attente = 0;
+        while (true) {
+            long sequence = lecture;
+            int indice = (int) sequence & MASQUE;
+
+            if (PUBLIEES.get(indice) != sequence) {
+                // Anneau vide : vider les tampons, puis attendre de plus en plus longtemps
+                if (attente == 0) {
+                    SORTIE.flush();
+                    SORTIE_ERREURS.flush();
+                    sortieTransferts.flush();
+                }
+                attente = Math.min(ATTENTE_MAX, Math.max(50_000L, attente * 2));
+                LockSupport.parkNanos(attente);
+                continue;
+            }
+            attente = 0;
+
+            Entree entree = ANNEAU[indice];
+            try {
+                ecrireEntree(entree);
+                ECRITS.incrementAndGet();
+            } catch (RuntimeException e) {
+                // Valeur impossible à mettre en forme : seule cette entrée est perdue
+                ECHECS.incrementAndGet();
+                SORTIE_ERREURS.println("[ERREUR] Entrée du journal abandonnée : " + e);
+            }
+            entree.message = null;
+            entree.valeur = null;
+            lecture = sequence + 1;
+        }
+    }
+
+    /**
+     * Met en forme et écrit une entrée
+     * La valeur est mise en forme avant toute écriture : si son toString() échoue,
+     * aucune ligne partielle n'est laissée dans la sortie.
+     *
+     * @param entree Entrée à écrire
+     */
+    private static void ecrireEntree(Entree entree) {
+        String valeur = entree.avecValeur ? String.valueOf(entree.valeur) : null;
+
+        if (entree.message == null && entree.valeur instanceof Transfert) {
+            PrintStream sortie = sortieTransferts;
+            if (sortie == SORTIE) {
+                sortie.print("[TRANSFERT] ");
+            }
+            sortie.println(valeur);
+            return;
+        }
+
+        PrintStream sortie = entree.niveau == Niveau.ERREUR ? SORTIE_ERREURS : SORTIE;
+        sortie.print(entree.niveau == Niveau.ERREUR ? "[ERREUR] " : "[SERVEUR] ");
+        sortie.print(entree.message);
+        if (valeur != null) {
+            sortie.print(valeur);
+        }
+        sortie.println();
+    }
+
+    /**
+     * Attend que l'écrivain ait écrit les messages en attente (arrêt du serveur)
+     */
+    private static void attendreVidage() {
+        long limite = System.currentTimeMillis() + DELAI_VIDAGE_ARRET;
+        while (lecture < ECRITURE.get() && System.currentTimeMillis() < limite) {
+            LockSupport.parkNanos(1_000_000L);
+        }
+        SORTIE.flush();
+        SORTIE_ERREURS.flush();
+        sortieTransferts.flush();
+    }
+
+    // ==================== STRUCTURES INTERNES ====================
+
+    /**
+     * Entrée réutilisable de l'anneau
+     */
+    private static final class Entree {
+        private Niveau niveau;
+        private String message;
+        private Object valeur;
+        private boolean avecValeur;
+    }
+
+    /**
+     * Enregistrement structuré d'un transfert de données d'une session
+     * Créé au lancement du transfert, complété à sa fin, puis mis en forme
+     * par l'écrivain sous la forme clé=valeur
+     */
+    public static final class Transfert {
+        private final long session;
+        private final String client;
+        private final String utilisateur;
+        private final String commande;
+        private final String cible;
+        private final long debut = System.currentTimeMillis();
+        private final long debutNanos = System.nanoTime();
+        private long octets;
+        private long dureeNanos;
+        private int code;
+        private String reglage;
+
+        /**
+         * Crée l'enregistrement d'un transfert qui commence
+         *
+         * @param session Numéro de la session
+         * @param client Adresse du client
+         * @param utilisateur Utilisateur authentifié
+         * @param commande Commande à l'origine du transfert (LIST, RETR...)
+         * @param cible Répertoire ou fichier transféré
+         */
+        public Transfert(long session, String client, String utilisateur, String commande, String cible) {
+            this.session = session;
+            this.client = client;
+            this.utilisateur = utilisateur;
+            this.commande = commande;
+            this.cible = cible;
+        }
+
+        /**
+         * Comptabilise des octets transférés
+         *
+         * @param nombre Nombre d'octets
+         */
+        public void ajouterOctets(long nombre) {
+            octets += nombre;
+        }
+
+        /**
+         * Enregistre le réglage de la connexion de données utilisé par le transfert
+         *
+         * @param resume Champs clé=valeur (voir ReglageTransfert.resume)
+         */
+        public void decrireReglage(String resume) {
+            reglage = resume;
+        }
+
+        /**
+         * Termine le transfert
+         *
+         * @param codeReponse Code de la réponse finale (226, 425, 426...)
+         */
+        public void terminer(int codeReponse) {
+            dureeNanos = System.nanoTime() - debutNanos;
+            code = codeReponse;
+        }
+
+        @Override
+        public String toString() {
+            long dureeMs = dureeNanos / 1_000_000;
+            long debitKo = dureeNanos > 0 ? (long) (octets * 1e9 / dureeNanos / 1024) : 0;
+            return String.format(Locale.ROOT,
+                "date=%s session=%d client=%s utilisateur=%s commande=%s cible=\"%s\" octets=%d duree_ms=%d debit_ko_s=%d code=%d",
+                Instant.ofEpochMilli(debut), session, client, utilisateur, commande, cible,
+                octets, dureeMs, debitKo, code) + (reglage != null ? " " + reglage : "");
+        }
+    }
+}
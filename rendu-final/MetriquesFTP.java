@@ -0,0 +1,46 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+
+/**
+ * MetriquesFTP - Registre des métriques du serveur
+ *
+ * Chaque composant enregistre ses jauges (valeurs lues à la demande) sous un nom
+ * hiérarchique, par exemple "sessions.actives". Les métriques sont consultables
+ * par le client avec la commande STAT.
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public final class MetriquesFTP {
+
+    /** Jauges enregistrées, triées par nom */
+    private static final Map<String, LongSupplier> JAUGES = new ConcurrentSkipListMap<>();
+
+    private MetriquesFTP() {
+        // Classe utilitaire
+    }
+
+    /**
+     * Enregistre (ou remplace) une jauge
+     *
+     * @param nom Nom de la métrique
+     * @param valeur Fonction retournant la valeur courante
+     */
+    public static void enregistrer(String nom, LongSupplier valeur) {
+        JAUGES.put(nom, valeur);
+    }
+
+    /**
+     * Relève la valeur courante de toutes les métriques
+     *
+     * @return Valeurs indexées par nom de métrique, triées par nom
+     */
+    public static Map<String, Long> instantane() {
+        Map<String, Long> valeurs = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> jauge : JAUGES.entrySet()) {
+            valeurs.put(jauge.getKey(), jauge.getValue().getAsLong());
+        }
+        return valeurs;
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.function.LongConsumer;
+
+/**
+ * ModeBloc - Mode de transfert par blocs (MODE B, RFC 959 section 3.4.2)
+ *
+ * En mode bloc, chaque fichier est découpé en blocs précédés d'un en-tête de
+ * 3 octets : un descripteur, puis le nombre d'octets du bloc (16 bits, gros-boutiste).
+ * La fin du fichier est signalée par le descripteur EOF et non par la fermeture de
+ * la connexion de données : une même connexion peut donc transporter plusieurs
+ * fichiers (ou listes) successifs.
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public final class ModeBloc {
+
+    // ==================== CONSTANTES ====================
+
+    /** Descripteur : le dernier octet du bloc est la fin du fichier */
+    public static final int DESCRIPTEUR_EOF = 0x40;
+
+    /** Taille de l'en-tête d'un bloc */
+    public static final int TAILLE_EN_TETE = 3;
+
+    /** Nombre maximal d'octets de données dans un bloc */
+    public static final int TAILLE_MAX_BLOC = 0xFFFF;
+
+    private ModeBloc() {
+        // Classe utilitaire
+    }
+
+    // ==================== ÉMISSION ====================
+
+    /**
+     * Canal d'écriture qui découpe les données en blocs
+     * La fin du fichier doit être signalée par terminer() (ou transfererDepuis)
+     * Le canal sous-jacent n'est jamais fermé par ce canal.
+     */
+    public static final class Sortie implements WritableByteChannel {
+
+        /** Canal de la connexion de données */
+        private final WritableByteChannel canal;
+
+        /** En-tête réutilisé d'un bloc à l'autre */
+        private final ByteBuffer enTete = ByteBuffer.allocate(TAILLE_EN_TETE);
+
+        /** En-tête et données, pour l'écriture groupée lorsque le canal le permet */
+        private final ByteBuffer[] morceaux = new ByteBuffer[2];
+
+        /** Indique que le bloc EOF a été envoyé */
+        private boolean termine;
+
+        /**
+         * Crée une sortie par blocs
+         *
+         * @param canal Canal de la connexion de données
+         */
+        public Sortie(WritableByteChannel canal) {
+            this.canal = canal;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int total = source.remaining();
+            while (source.hasRemaining()) {
+                int taille = Math.min(source.remaining(), TAILLE_MAX_BLOC);
+                ByteBuffer bloc = source.slice();
+                bloc.limit(taille);
+                ecrireBloc(0, bloc);
+                source.position(source.position() + taille);
+            }
+            return total;
+        }
+
+        /**
+         * Envoie une portion de fichier, la dernière portion portant le descripteur EOF
+         * Les données passent par FileChannel.transferTo (sans copie si le canal est une socket)
+         *
+         * @param fichier Canal du fichier
+         * @param position Position de départ dans le fichier
+         * @param taille Nombre d'octets à envoyer
+         * @return Nombre d'octets effectivement envoyés (moins si le fichier a été tronqué)
+         * @throws IOException Si erreur de lecture ou d'écriture
+         */
+        public long transfererDepuis(FileChannel fichier, long position, long taille) throws IOException {
+            return transfererDepuis(fichier, position, taille, octets -> { });
+        }
+
+        /**
+         * Envoie une portion de fichier comme transfererDepuis, en signalant l'avancement
+         *
+         * @param fichier Canal du fichier
+         * @param position Position de départ dans le fichier
+         * @param taille Nombre d'octets à envoyer
+         * @param avancement Appelé avec le nombre d'octets de données de chaque écriture
+         * @return Nombre d'octets effectivement envoyés (moins si le fichier a été tronqué)
+         * @throws IOException Si erreur de lecture ou d'écriture
+         */
+        public long transfererDepuis(FileChannel fichier, long position, long taille, LongConsumer avancement)
+                throws IOException {
+            long envoyes = 0;
+            while (envoyes < taille) {
+                int tailleBloc = (int) Math.min(taille - envoyes, TAILLE_MAX_BLOC);
+                boolean dernier = envoyes + tailleBloc == taille;
+                ecrireEnTete(dernier ? DESCRIPTEUR_EOF : 0, tailleBloc);
+
+                long restant = tailleBloc;
+                while (restant > 0) {
+                    long transferes = fichier.transferTo(position + envoyes + tailleBloc - restant, restant, canal);
+                    if (transferes <= 0) {
+                        // Fichier tronqué : l'en-tête annonce des octets qui ne viendront pas
+                        throw new EOFException("fichier tronqué pendant le transfert");
+                    }
+                    restant -= transferes;
+                    avancement.accept(transferes);
+                }
+                envoyes += tailleBloc;
+                termine = dernier;
+            }
+            terminer();
+            return envoyes;
+        }
+
+        /**
+         * Signale la fin du fichier (bloc EOF vide), si ce n'est pas déjà fait
+         *
+         * @throws IOException Si erreur d'écriture
+         */
+        public void terminer() throws IOException {
+            if (!termine) {
+                ecrireEnTete(DESCRIPTEUR_EOF, 0);
+                termine = true;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return canal.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // La connexion de données reste ouverte pour les transferts suivants
+        }
+
+        /**
+         * Écrit un bloc complet (en-tête et données)
+         *
+         * @param descripteur Descripteur du bloc
+         * @param donnees Données du bloc (au plus TAILLE_MAX_BLOC octets)
+         * @throws IOException Si erreur d'écriture
+         */
+        private void ecrireBloc(int descripteur, ByteBuffer donnees) throws IOException {
+            preparerEnTete(descripteur, donnees.remaining());
+            if (canal instanceof GatheringByteChannel) {
+                // En-tête et données en un seul appel système
+                morceaux[0] = enTete;
+                morceaux[1] = donnees;
+                GatheringByteChannel groupe = (GatheringByteChannel) canal;
+                while (enTete.hasRemaining() || donnees.hasRemaining()) {
+                    groupe.write(morceaux);
+                }
+                morceaux[1] = null;
+            } else {
+                ecrireTout(enTete);
+                ecrireTout(donnees);
+            }
+        }
+
+        /**
+         * Écrit un en-tête seul
+         *
+         * @param descripteur Descripteur du bloc
+         * @param taille Nombre d'octets de données qui suivront
+         * @throws IOException Si erreur d'écriture
+         */
+        private void ecrireEnTete(int descripteur, int taille) throws IOException {
+            preparerEnTete(descripteur, taille);
+            ecrireTout(enTete);
+        }
+
+        /**
+         * Remplit l'en-tête réutilisable
+         *
+         * @param descripteur Descripteur du bloc
+         * @param taille Nombre d'octets de données
+         */
+        private void preparerEnTete(int descripteur, int taille) {
+            enTete.clear();
+            enTete.put((byte) descripteur).putShort((short) taille);
+            enTete.flip();
+        }
+
+        /**
+         * Écrit intégralement un tampon sur le canal
+         *
+         * @param tampon Tampon à écrire
+         * @throws IOException Si erreur d'écriture
+         */
+        private void ecrireTout(ByteBuffer tampon) throws IOException {
+            while (tampon.hasRemaining()) {
+                canal.write(tampon);
+            }
+        }
+    }
+
+    // ==================== RÉCEPTION ====================
+
+    /**
+     * Flux de lecture des données d'un fichier reçu en mode bloc
+     * Retourne -1 à la fin du fichier ; le flux sous-jacent n'est jamais fermé.
+     * close() consomme la fin éventuelle du fichier pour laisser la connexion
+     * positionnée sur le fichier suivant.
+     */
+    public static final class Entree extends InputStream {
+
+        /** Flux de la connexion de données */
+        private final DataInputStream flux;
+
+        /** Octets restant à lire dans le bloc courant */
+        private int restantBloc;
+
+        /** Indique que le bloc courant est le dernier du fichier */
+        private boolean dernierBloc;
+
+        /** Indique que la fin du fichier a été atteinte */
+        private boolean finFichier;
+
+        /**
+         * Crée un flux de lecture par blocs
+         *
+         * @param flux Flux de la connexion de données
+         */
+        public Entree(InputStream flux) {
+            this.flux = new DataInputStream(flux);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] octet = new byte[1];
+            return read(octet, 0, 1) < 0 ? -1 : octet[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] tampon, int debut, int longueur) throws IOException {
+            if (longueur == 0) {
+                return 0;
+            }
+            while (restantBloc == 0) {
+                if (finFichier || dernierBloc) {
+                    finFichier = true;
+                    return -1;
+                }
+                lireEnTete();
+            }
+            int lus = flux.read(tampon, debut, Math.min(longueur, restantBloc));
+            if (lus < 0) {
+                throw new EOFException("connexion de données fermée au milieu d'un bloc");
+            }
+            restantBloc -= lus;
+            return lus;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return Math.min(restantBloc, flux.available());
+        }
+
+        @Override
+        public void close() throws IOException {
+            byte[] reste = new byte[4096];
+            while (read(reste, 0, reste.length) >= 0) {
+                // Consommer la fin du fichier
+            }
+        }
+
+        /**
+         * Lit l'en-tête du bloc suivant
+         *
+         * @throws IOException Si la connexion est fermée
+         */
+        private void lireEnTete() throws IOException {
+            int descripteur = flux.readUnsignedByte();
+            restantBloc = flux.readUnsignedShort();
+            dernierBloc = (descripteur & DESCRIPTEUR_EOF) != 0;
+        }
+    }
+}
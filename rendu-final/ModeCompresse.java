@@ -0,0 +1,188 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.*;
+
+/**
+ * ModeCompresse - Mode de transfert compressé (MODE Z)
+ *
+ * Les données de LIST, RETR et MRET sont compressées au fil de l'eau par deflate
+ * (format zlib) : aucun fichier n'est mis en mémoire en entier, les octets sont
+ * compressés par tampons de TAILLE_TAMPON dans le thread de transfert, jamais dans
+ * celui de la connexion de contrôle. Comme en mode flux, la fin des données est
+ * signalée par la fermeture de la connexion de données.
+ *
+ * Les métriques compression.octets_entree et compression.octets_sortie donnent le gain
+ * sur le réseau, compression.temps_us le temps processeur passé à compresser.
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public final class ModeCompresse {
+
+    // ==================== CONSTANTES ====================
+
+    /** Niveau de compression par défaut (compromis vitesse / taux de deflate) */
+    public static final int NIVEAU_DEFAUT = 6;
+
+    /** Taille des tampons de compression et de décompression */
+    private static final int TAILLE_TAMPON = 64 * 1024;
+
+    /** Entrée vide, pour détacher le compresseur du tampon de l'appelant */
+    private static final byte[] AUCUNE_DONNEE = new byte[0];
+
+    // ==================== MÉTRIQUES ====================
+
+    /** Octets reçus par les compresseurs (avant compression) */
+    private static final AtomicLong OCTETS_ENTREE = new AtomicLong();
+
+    /** Octets envoyés par les compresseurs (après compression) */
+    private static final AtomicLong OCTETS_SORTIE = new AtomicLong();
+
+    /** Temps passé dans Deflater.deflate, en nanosecondes */
+    private static final AtomicLong TEMPS_COMPRESSION = new AtomicLong();
+
+    /** Niveau de compression des nouvelles sorties */
+    private static volatile int niveau = NIVEAU_DEFAUT;
+
+    static {
+        MetriquesFTP.enregistrer("compression.octets_entree", OCTETS_ENTREE::get);
+        MetriquesFTP.enregistrer("compression.octets_sortie", OCTETS_SORTIE::get);
+        MetriquesFTP.enregistrer("compression.temps_us", () -> TEMPS_COMPRESSION.get() / 1000);
+        MetriquesFTP.enregistrer("compression.niveau", () -> niveau);
+    }
+
+    private ModeCompresse() {
+        // Classe utilitaire
+    }
+
+    /**
+     * Fixe le niveau de compression (0 : aucune compression, 9 : taux maximal)
+     *
+     * @param niveauCompression Niveau deflate, ramené entre 0 et 9
+     */
+    public static void configurer(int niveauCompression) {
+        niveau = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, niveauCompression));
+    }
+
+    /**
+     * Niveau de compression courant
+     *
+     * @return Niveau deflate
+     */
+    public static int niveau() {
+        return niveau;
+    }
+
+    // ==================== ÉMISSION ====================
+
+    /**
+     * Canal d'écriture qui compresse les données avant de les écrire sur la connexion
+     * terminer() vide le compresseur ; close() libère sa mémoire native, que le transfert
+     * ait abouti ou non (à utiliser dans un try-with-resources). Le canal sous-jacent
+     * n'est jamais fermé par ce canal.
+     */
+    public static final class Sortie implements WritableByteChannel {
+
+        /** Canal de la connexion de données */
+        private final WritableByteChannel canal;
+
+        /** Compresseur de la connexion */
+        private final Deflater compresseur = new Deflater(niveau);
+
+        /** Tampon des données compressées */
+        private final ByteBuffer compresse = ByteBuffer.allocate(TAILLE_TAMPON);
+
+        /**
+         * Crée une sortie compressée
+         *
+         * @param canal Canal de la connexion de données
+         */
+        public Sortie(WritableByteChannel canal) {
+            this.canal = canal;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int total = source.remaining();
+            OCTETS_ENTREE.addAndGet(total);
+            compresseur.setInput(source);
+            while (!compresseur.needsInput()) {
+                compresser();
+            }
+            // Le compresseur garde une référence au tampon, que l'appelant va réutiliser
+            compresseur.setInput(AUCUNE_DONNEE);
+            return total;
+        }
+
+        /**
+         * Termine le flux compressé (le compresseur est libéré par close)
+         *
+         * @throws IOException Si erreur d'écriture
+         */
+        public void terminer() throws IOException {
+            compresseur.finish();
+            while (!compresseur.finished()) {
+                compresser();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return canal.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // Libère le compresseur (sans effet s'il l'est déjà) ; la connexion de
+            // données est fermée par le serveur à la fin du transfert
+            compresseur.end();
+        }
+
+        /**
+         * Compresse ce qui peut l'être et écrit le résultat sur le canal
+         *
+         * @throws IOException Si erreur d'écriture
+         */
+        private void compresser() throws IOException {
+            compresse.clear();
+            long debut = System.nanoTime();
+            compresseur.deflate(compresse);
+            TEMPS_COMPRESSION.addAndGet(System.nanoTime() - debut);
+            compresse.flip();
+            OCTETS_SORTIE.addAndGet(compresse.remaining());
+            while (compresse.hasRemaining()) {
+                canal.write(compresse);
+            }
+        }
+    }
+
+    // ==================== RÉCEPTION ====================
+
+    /**
+     * Flux de lecture qui décompresse les données reçues
+     * Retourne -1 à la fin du flux compressé ; close() libère le décompresseur
+     * et ferme le flux sous-jacent.
+     */
+    public static final class Entree extends InflaterInputStream {
+
+        /**
+         * Crée un flux de lecture décompressé
+         *
+         * @param flux Flux de la connexion de données
+         */
+        public Entree(InputStream flux) {
+            super(flux, new Inflater(), TAILLE_TAMPON);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * PoolPortsPassifs - Allocation des ports du mode passif partagée par toutes les sessions
+ *
+ * Les ports libres sont suivis dans une table de bits sans verrou (un bit par port).
+ * Un port est réservé par compare-and-set avant la tentative de bind, ce qui évite
+ * que deux sessions se disputent le même port et que chaque PASV parcoure la plage
+ * en échouant sur les ports déjà pris par le serveur. Le curseur de départ tourne
+ * pour répartir les ports et limiter la réutilisation immédiate d'un port fermé.
+ *
+ * Métriques exposées : ports.passifs.utilises, ports.passifs.libres
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public class PoolPortsPassifs {
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Premier port de la plage */
+    private final int portMin;
+
+    /** Nombre de ports de la plage */
+    private final int nombrePorts;
+
+    /** Table des ports réservés (bit à 1 = port utilisé) */
+    private final AtomicLongArray occupation;
+
+    /** Position de départ de la prochaine recherche */
+    private final AtomicInteger curseur = new AtomicInteger();
+
+    /** Nombre de ports actuellement réservés */
+    private final AtomicInteger portsUtilises = new AtomicInteger();
+
+    // ==================== CONSTRUCTEUR ====================
+
+    /**
+     * Crée un pool de ports passifs
+     *
+     * @param portMin Premier port de la plage (inclus)
+     * @param portMax Dernier port de la plage (inclus)
+     */
+    public PoolPortsPassifs(int portMin, int portMax) {
+        this.portMin = portMin;
+        this.nombrePorts = portMax - portMin + 1;
+        this.occupation = new AtomicLongArray((nombrePorts + 63) / 64);
+
+        MetriquesFTP.enregistrer("ports.passifs.utilises", portsUtilises::get);
+        MetriquesFTP.enregistrer("ports.passifs.libres", () -> nombrePorts - portsUtilises.get());
+    }
+
+    // ==================== MÉTHODES PRINCIPALES ====================
+
+    /**
+     * Réserve un port libre et y ouvre une socket d'écoute
+     * La socket est adossée à un ServerSocketChannel afin que les connexions acceptées
+     * disposent d'un SocketChannel (nécessaire pour le transfert sans copie)
+     *
+     * @return Socket d'écoute, ou null si aucun port n'est disponible
+     */
+    public ServerSocket acquerir() {
+        // Chaque port peut être tenté au plus une fois (ports occupés par d'autres processus)
+        for (int tentative = 0; tentative < nombrePorts; tentative++) {
+            int indice = reserverIndice();
+            if (indice < 0) {
+                return null;
+            }
+
+            ServerSocketChannel canal = null;
+            try {
+                canal = ServerSocketChannel.open();
+                ReglageTransfert.preparer(canal.socket());
+                canal.bind(new InetSocketAddress(portMin + indice));
+                return canal.socket();
+            } catch (IOException e) {
+                // Port pris hors du serveur : le rendre et essayer le suivant
+                if (canal != null) {
+                    try {
+                        canal.close();
+                    } catch (IOException ignoree) {
+                        // Rien à faire
+                    }
+                }
+                libererIndice(indice);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ferme une socket d'écoute obtenue par acquerir et rend son port au pool
+     *
+     * @param socket Socket à fermer (peut être null ou déjà fermée)
+     */
+    public void liberer(ServerSocket socket) {
+        if (socket == null) {
+            return;
+        }
+        int port = socket.getLocalPort();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            JournalFTP.erreur("Erreur lors de la fermeture du port passif ", port + " : " + e.getMessage());
+        }
+        // getLocalPort vaut -1 si la socket n'a jamais été liée
+        if (port >= portMin && port < portMin + nombrePorts) {
+            libererIndice(port - portMin);
+        }
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Réserve le premier indice libre à partir du curseur
+     *
+     * @return Indice réservé, ou -1 si tous les ports sont pris
+     */
+    private int reserverIndice() {
+        int nombreMots = occupation.length();
+        int depart = Math.floorMod(curseur.getAndIncrement(), nombrePorts);
+
+        // Parcours des mots de 64 bits à partir de celui du curseur (un tour complet au plus)
+        for (int i = 0; i <= nombreMots; i++) {
+            int mot = (depart / 64 + i) % nombreMots;
+            // Au premier mot, ignorer les bits situés avant le curseur
+            long masqueDebut = i == 0 ? -1L << (depart % 64) : -1L;
+
+            while (true) {
+                long valeur = occupation.get(mot);
+                long libres = ~valeur & masqueDebut & masqueValide(mot);
+                if (libres == 0) {
+                    break;
+                }
+                long bit = Long.lowestOneBit(libres);
+                if (occupation.compareAndSet(mot, valeur, valeur | bit)) {
+                    portsUtilises.incrementAndGet();
+                    return mot * 64 + Long.numberOfTrailingZeros(bit);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rend un indice au pool
+     *
+     * @param indice Indice du port
+     */
+    private void libererIndice(int indice) {
+        int mot = indice / 64;
+        long bit = 1L << (indice % 64);
+        while (true) {
+            long valeur = occupation.get(mot);
+            if ((valeur & bit) == 0) {
+                return; // Déjà libéré
+            }
+            if (occupation.compareAndSet(mot, valeur, valeur & ~bit)) {
+                portsUtilises.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Masque des bits correspondant à des ports de la plage dans un mot
+     *
+     * @param mot Indice du mot
+     * @return Masque des bits valides
+     */
+    private long masqueValide(int mot) {
+        int bitsRestants = nombrePorts - mot * 64;
+        return bitsRestants >= 64 ? -1L : (1L << bitsRestants) - 1;
+    }
+}
@@ -0,0 +1,340 @@
+import java.io.*;
+import java.lang.ref.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * PoolTampons - Tampons directs partagés par tous les transferts de données
+ *
+ * Les tampons sont alloués hors tas, alignés sur une page mémoire, et regroupés en
+ * classes de taille (puissances de 2 de TAILLE_MIN à TAILLE_MAX). Un tampon rendu par
+ * liberer() est réutilisé par le transfert suivant, quelle que soit la session : en
+ * régime établi, un transfert n'alloue plus de mémoire. Chaque classe conserve au plus
+ * OCTETS_LIBRES_MAX_PAR_CLASSE octets de tampons libres ; au-delà, les tampons rendus
+ * sont abandonnés au ramasse-miettes.
+ *
+ * Détection des fuites : lorsque le journal est au niveau DEBUG, l'appelant reçoit une
+ * vue du tampon, suivie par une référence faible. Une vue récupérée par le
+ * ramasse-miettes sans avoir été rendue est signalée dans le journal avec la pile de
+ * l'appel qui l'a obtenue, et son tampon revient dans le pool.
+ *
+ * Quel que soit le niveau du journal, les tampons prêtés sont suivis par identité : un
+ * tampon rendu deux fois (ou étranger au pool) est signalé et ignoré, et ne peut donc
+ * jamais être prêté à deux transferts à la fois.
+ *
+ * Métriques exposées : tampons.prets, tampons.libres, tampons.octets_directs,
+ * tampons.acquisitions, tampons.allocations, tampons.fuites
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public final class PoolTampons {
+
+    // ==================== CONSTANTES ====================
+
+    /** Taille minimale d'un tampon */
+    public static final int TAILLE_MIN = 64 * 1024;
+
+    /** Taille maximale d'un tampon */
+    public static final int TAILLE_MAX = 1024 * 1024;
+
+    /** Taille des pages mémoire sur lesquelles les tampons sont alignés */
+    private static final int TAILLE_PAGE = 4096;
+
+    /** Octets de tampons libres conservés au plus dans chaque classe de taille */
+    private static final long OCTETS_LIBRES_MAX_PAR_CLASSE = 16L * 1024 * 1024;
+
+    /** Nombre de classes de taille (64 Ko, 128 Ko, ..., 1 Mo) */
+    private static final int NOMBRE_CLASSES =
+        Integer.numberOfTrailingZeros(TAILLE_MAX) - Integer.numberOfTrailingZeros(TAILLE_MIN) + 1;
+
+    // ==================== ÉTAT DU POOL ====================
+
+    /** Tampons libres, par classe de taille */
+    private static final List<ConcurrentLinkedQueue<ByteBuffer>> LIBRES = new ArrayList<>(NOMBRE_CLASSES);
+
+    /** Nombre de tampons libres, par classe de taille */
+    private static final AtomicIntegerArray NOMBRE_LIBRES = new AtomicIntegerArray(NOMBRE_CLASSES);
+
+    /** Tampons prêtés (tampons sous-jacents, y compris en mode DEBUG) */
+    private static final Set<Identite> PRETES = ConcurrentHashMap.newKeySet();
+
+    /** Vues prêtées et suivies en mode DEBUG, avec la pile de l'appel qui les a obtenues */
+    private static final Map<Cle, Suivi> SUIVIS = new ConcurrentHashMap<>();
+
+    /** Vues suivies récupérées par le ramasse-miettes */
+    private static final ReferenceQueue<ByteBuffer> VUES_RECUPEREES = new ReferenceQueue<>();
+
+    /** Taille des tampons demandés sans taille explicite */
+    private static volatile int tailleParDefaut = 256 * 1024;
+
+    /** Compteurs pour les métriques */
+    private static final AtomicLong PRETS = new AtomicLong();
+    private static final AtomicLong OCTETS_DIRECTS = new AtomicLong();
+    private static final AtomicLong ACQUISITIONS = new AtomicLong();
+    private static final AtomicLong ALLOCATIONS = new AtomicLong();
+    private static final AtomicLong FUITES = new AtomicLong();
+
+    static {
+        for (int i = 0; i < NOMBRE_CLASSES; i++) {
+            LIBRES.add(new ConcurrentLinkedQueue<>());
+        }
+        MetriquesFTP.enregistrer("tampons.prets", PRETS::get);
+        MetriquesFTP.enregistrer("tampons.libres", () -> {
+            long libres = 0;
+            for (int i = 0; i < NOMBRE_CLASSES; i++) {
+                libres += NOMBRE_LIBRES.get(i);
+            }
+            return libres;
+        });
+        MetriquesFTP.enregistrer("tampons.octets_directs", OCTETS_DIRECTS::get);
+        MetriquesFTP.enregistrer("tampons.acquisitions", ACQUISITIONS::get);
+        MetriquesFTP.enregistrer("tampons.allocations", ALLOCATIONS::get);
+        MetriquesFTP.enregistrer("tampons.fuites", FUITES::get);
+    }
+
+    private PoolTampons() {
+        // Classe utilitaire
+    }
+
+    /**
+     * Fixe la taille des tampons demandés sans taille explicite
+     *
+     * @param taille Taille en octets, ramenée entre TAILLE_MIN et TAILLE_MAX
+     *               puis arrondie à la puissance de 2 supérieure
+     */
+    public static void configurer(int taille) {
+        tailleParDefaut = TAILLE_MIN << classe(taille);
+    }
+
+    /**
+     * Taille des tampons demandés sans taille explicite
+     *
+     * @return Taille en octets
+     */
+    public static int tailleParDefaut() {
+        return tailleParDefaut;
+    }
+
+    // ==================== PRÊT ET RESTITUTION ====================
+
+    /**
+     * Prête un tampon de la taille par défaut
+     *
+     * @return Tampon direct vide (position 0, limite égale à la capacité)
+     */
+    public static ByteBuffer acquerir() {
+        return acquerir(tailleParDefaut);
+    }
+
+    /**
+     * Prête un tampon d'au moins la taille demandée (dans la limite de TAILLE_MAX)
+     * Le tampon doit être rendu par liberer() une fois le transfert terminé.
+     *
+     * @param taille Taille souhaitée en octets
+     * @return Tampon direct vide (position 0, limite égale à la capacité)
+     */
+    public static ByteBuffer acquerir(int taille) {
+        boolean suivi = JournalFTP.actif(JournalFTP.Niveau.DEBUG);
+        if (suivi) {
+            signalerFuites(); // Les tampons des vues perdues redeviennent disponibles
+        }
+        int classe = classe(taille);
+        ACQUISITIONS.incrementAndGet();
+        PRETS.incrementAndGet();
+
+        ByteBuffer tampon = LIBRES.get(classe).poll();
+        if (tampon != null) {
+            NOMBRE_LIBRES.decrementAndGet(classe);
+        } else {
+            tampon = allouer(TAILLE_MIN << classe);
+        }
+        PRETES.add(new Identite(tampon));
+
+        if (!suivi) {
+            return tampon;
+        }
+        // Mode DEBUG : l'appelant reçoit une vue du tampon, suivie par référence faible
+        ByteBuffer vue = tampon.duplicate();
+        SUIVIS.put(new Cle(vue, VUES_RECUPEREES), new Suivi(tampon, new Throwable("tampon obtenu ici")));
+        return vue;
+    }
+
+    /**
+     * Rend un tampon obtenu par acquerir()
+     * Le tampon ne doit plus être utilisé par l'appelant après cet appel. Un tampon
+     * déjà rendu est signalé dans le journal et ignoré.
+     *
+     * @param tampon Tampon à rendre (null accepté et ignoré)
+     */
+    public static void liberer(ByteBuffer tampon) {
+        if (tampon == null) {
+            return;
+        }
+        ByteBuffer sousJacent = tampon;
+        if (!SUIVIS.isEmpty() || JournalFTP.actif(JournalFTP.Niveau.DEBUG)) {
+            Suivi suivi = SUIVIS.remove(new Cle(tampon, null));
+            if (suivi == null) {
+                // Vue non suivie : déjà rendue, ou étrangère au pool
+                JournalFTP.erreur("Tampon rendu deux fois ou étranger au pool : ", tampon);
+                return;
+            }
+            sousJacent = suivi.tampon;
+        }
+        if (!PRETES.remove(new Identite(sousJacent))) {
+            JournalFTP.erreur("Tampon rendu deux fois ou étranger au pool : ", tampon);
+            return;
+        }
+        PRETS.decrementAndGet();
+        remettre(sousJacent);
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Signale les vues suivies récupérées par le ramasse-miettes sans avoir été rendues
+     * Leur tampon, devenu inaccessible à l'appelant, revient dans le pool.
+     */
+    private static void signalerFuites() {
+        Reference<? extends ByteBuffer> reference;
+        while ((reference = VUES_RECUPEREES.poll()) != null) {
+            Suivi suivi = SUIVIS.remove(reference);
+            if (suivi == null || !PRETES.remove(new Identite(suivi.tampon))) {
+                continue;
+            }
+            FUITES.incrementAndGet();
+            PRETS.decrementAndGet();
+            StringWriter pile = new StringWriter();
+            suivi.origine.printStackTrace(new PrintWriter(pile));
+            JournalFTP.erreur("Fuite de tampon (jamais rendu au pool) : ", pile);
+            remettre(suivi.tampon);
+        }
+    }
+
+    /**
+     * Remet un tampon parmi les tampons libres de sa classe, s'il y a de la place
+     *
+     * @param tampon Tampon (non suivi)
+     */
+    private static void remettre(ByteBuffer tampon) {
+        int capacite = tampon.capacity();
+        if (!tampon.isDirect() || Integer.bitCount(capacite) != 1 || capacite < TAILLE_MIN || capacite > TAILLE_MAX) {
+            return; // Pas un tampon du pool
+        }
+        int classe = classe(capacite);
+        if ((long) (NOMBRE_LIBRES.get(classe) + 1) * capacite > OCTETS_LIBRES_MAX_PAR_CLASSE) {
+            OCTETS_DIRECTS.addAndGet(-capacite);
+            return; // Assez de tampons libres : celui-ci est abandonné au ramasse-miettes
+        }
+        tampon.clear();
+        NOMBRE_LIBRES.incrementAndGet(classe);
+        LIBRES.get(classe).offer(tampon);
+    }
+
+    /**
+     * Alloue un nouveau tampon direct aligné sur une page
+     *
+     * @param taille Taille du tampon (puissance de 2)
+     * @return Tampon de capacité taille
+     */
+    private static ByteBuffer allouer(int taille) {
+        ALLOCATIONS.incrementAndGet();
+        OCTETS_DIRECTS.addAndGet(taille);
+        return ByteBuffer.allocateDirect(taille + TAILLE_PAGE)
+            .alignedSlice(TAILLE_PAGE)
+            .limit(taille)
+            .slice();
+    }
+
+    /**
+     * Classe de taille d'une demande
+     *
+     * @param taille Taille demandée
+     * @return Indice de la plus petite classe contenant taille (bornée à la dernière)
+     */
+    private static int classe(int taille) {
+        if (taille <= TAILLE_MIN) {
+            return 0;
+        }
+        if (taille >= TAILLE_MAX) {
+            return NOMBRE_CLASSES - 1;
+        }
+        return 32 - Integer.numberOfLeadingZeros(taille - 1) - Integer.numberOfTrailingZeros(TAILLE_MIN);
+    }
+
+    // ==================== TYPES INTERNES ====================
+
+    /**
+     * Clé de suivi d'une vue prêtée : référence faible comparée par identité
+     * Une clé dont la vue a été récupérée n'est plus égale qu'à elle-même.
+     */
+    private static final class Cle extends WeakReference<ByteBuffer> {
+
+        /** Code de hachage de la vue, conservé après sa récupération */
+        private final int hachage;
+
+        Cle(ByteBuffer vue, ReferenceQueue<ByteBuffer> file) {
+            super(vue, file);
+            this.hachage = System.identityHashCode(vue);
+        }
+
+        @Override
+        public int hashCode() {
+            return hachage;
+        }
+
+        @Override
+        public boolean equals(Object autre) {
+            if (autre == this) {
+                return true;
+            }
+            if (!(autre instanceof Cle)) {
+                return false;
+            }
+            ByteBuffer vue = get();
+            return vue != null && vue == ((Cle) autre).get();
+        }
+    }
+
+    /**
+     * Tampon comparé par identité (l'égalité de ByteBuffer porte sur le contenu)
+     */
+    private static final class Identite {
+
+        /** Tampon désigné */
+        private final ByteBuffer tampon;
+
+        Identite(ByteBuffer tampon) {
+            this.tampon = tampon;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(tampon);
+        }
+
+        @Override
+        public boolean equals(Object autre) {
+            return autre instanceof Identite && ((Identite) autre).tampon == tampon;
+        }
+    }
+
+    /**
+     * Suivi d'une vue prêtée en mode DEBUG
+     */
+    private static final class Suivi {
+
+        /** Tampon sous-jacent à la vue prêtée */
+        private final ByteBuffer tampon;
+
+        /** Pile de l'appel à acquerir() */
+        private final Throwable origine;
+
+        Suivi(ByteBuffer tampon, Throwable origine) {
+            this.tampon = tampon;
+            this.origine = origine;
+        }
+    }
+}
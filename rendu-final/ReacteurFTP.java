@@ -0,0 +1,433 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * ReacteurFTP - Moteur événementiel pour les connexions de contrôle
+ *
+ * Toutes les connexions de contrôle sont multiplexées sur un petit nombre de
+ * threads réacteurs (Selector/SocketChannel non bloquants). Une session inactive
+ * n'occupe donc aucun thread. Les commandes reçues sont décodées dans le tampon
+ * de la session (DecodeurCommandes) et confiées à ServeurFTP sur un pool de
+ * travailleurs, une seule à la fois par session pour conserver l'ordre des
+ * commandes et des réponses.
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public class ReacteurFTP {
+
+    // ==================== CONSTANTES ====================
+
+    /** Taille du tampon de lecture d'une connexion de contrôle (longueur maximale d'une ligne) */
+    private static final int TAILLE_TAMPON_LECTURE = 8192;
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Boucles d'événements (une par thread réacteur) */
+    private final BoucleEvenements[] boucles;
+
+    /** Pool exécutant les commandes (qui peuvent bloquer pendant un transfert) */
+    private final ExecutorService executeurCommandes;
+
+    /** Contrôle d'admission des sessions */
+    private final ExecuteurSessions admission;
+
+    /** Indice de la prochaine boucle à recevoir une connexion */
+    private int prochaineBoucle;
+
+    // ==================== CONSTRUCTEUR ====================
+
+    /**
+     * Crée un réacteur FTP
+     *
+     * @param nombreReacteurs Nombre de threads réacteurs
+     * @param admission Contrôle d'admission, dont l'exécuteur traite les commandes des sessions
+     * @throws IOException Si un sélecteur ne peut pas être ouvert
+     */
+    public ReacteurFTP(int nombreReacteurs, ExecuteurSessions admission) throws IOException {
+        this.boucles = new BoucleEvenements[nombreReacteurs];
+        for (int i = 0; i < nombreReacteurs; i++) {
+            boucles[i] = new BoucleEvenements(Selector.open());
+        }
+        this.admission = admission;
+        this.executeurCommandes = admission.executeur();
+    }
+
+    // ==================== MÉTHODES PRINCIPALES ====================
+
+    /**
+     * Démarre les réacteurs puis accepte les connexions dans le thread courant
+     *
+     * @param port Port d'écoute de la connexion de contrôle
+     * @throws IOException Si erreur sur la socket d'écoute
+     */
+    public void demarrer(int port) throws IOException {
+        for (int i = 0; i < boucles.length; i++) {
+            Thread thread = new Thread(boucles[i], "reacteur-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try (ServerSocketChannel canalEcoute = ServerSocketChannel.open()) {
+            canalEcoute.bind(new InetSocketAddress(port));
+            JournalFTP.info("Serveur FTP démarré, en attente de connexions...\n");
+
+            while (true) {
+                SocketChannel canalClient = canalEcoute.accept();
+                JournalFTP.info("Nouveau client connecté : ", canalClient.socket().getInetAddress());
+
+                // Serveur saturé : refus immédiat
+                if (!admission.ouvrirSession()) {
+                    ServeurFTP.refuserConnexion(canalClient.socket());
+                    continue;
+                }
+
+                BoucleEvenements boucle = boucles[prochaineBoucle];
+                prochaineBoucle = (prochaineBoucle + 1) % boucles.length;
+                boucle.enregistrer(canalClient);
+            }
+        }
+    }
+
+    // ==================== BOUCLE D'ÉVÉNEMENTS ====================
+
+    /**
+     * Boucle d'un thread réacteur : lit les commandes et écrit les réponses
+     * de toutes les sessions qui lui sont attribuées
+     */
+    private class BoucleEvenements implements Runnable {
+
+        /** Sélecteur de la boucle */
+        private final Selector selecteur;
+
+        /** Actions à exécuter dans le thread réacteur (enregistrement, écriture) */
+        private final Queue<Runnable> actions = new ConcurrentLinkedQueue<>();
+
+        BoucleEvenements(Selector selecteur) {
+            this.selecteur = selecteur;
+        }
+
+        /**
+         * Confie une nouvelle connexion de contrôle à cette boucle
+         *
+         * @param canal Connexion acceptée
+         */
+        void enregistrer(SocketChannel canal) {
+            executer(() -> {
+                try {
+                    canal.configureBlocking(false);
+                    SelectionKey cle = canal.register(selecteur, SelectionKey.OP_READ);
+                    Session session = new Session(canal, cle, this);
+                    cle.attach(session);
+                    session.ouvrir();
+                } catch (IOException e) {
+                    JournalFTP.erreur("Impossible d'enregistrer la connexion : ", e.getMessage());
+                    admission.fermerSession();
+                    try {
+                        canal.close();
+                    } catch (IOException ignoree) {
+                        // Rien à faire
+                    }
+                }
+            });
+        }
+
+        /**
+         * Planifie une action dans le thread réacteur et réveille le sélecteur
+         *
+         * @param action Action à exécuter
+         */
+        void executer(Runnable action) {
+            actions.add(action);
+            selecteur.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selecteur.select();
+
+                    Runnable action;
+                    while ((action = actions.poll()) != null) {
+                        action.run();
+                    }
+
+                    Iterator<SelectionKey> iterateur = selecteur.selectedKeys().iterator();
+                    while (iterateur.hasNext()) {
+                        SelectionKey cle = iterateur.next();
+                        iterateur.remove();
+
+                        Session session = (Session) cle.attachment();
+                        if (!cle.isValid()) {
+                            continue;
+                        }
+                        if (cle.isReadable()) {
+                            session.lire();
+                        }
+                        if (cle.isValid() && cle.isWritable()) {
+                            session.ecrire();
+                        }
+                    }
+                } catch (IOException e) {
+                    JournalFTP.erreur("Erreur dans la boucle d'événements : ", e.getMessage());
+                }
+            }
+        }
+    }
+
+    // ==================== SESSION ====================
+
+    /**
+     * État d'une connexion de contrôle gérée par le réacteur
+     */
+    private class Session {
+
+        /** Connexion de contrôle (non bloquante) */
+        private final SocketChannel canal;
+
+        /** Clé d'enregistrement auprès du sélecteur */
+        private final SelectionKey cle;
+
+        /** Boucle propriétaire de la session */
+        private final BoucleEvenements boucle;
+
+        /** Instance traitant les commandes de la session */
+        private final ServeurFTP serveur;
+
+        /** Octets reçus non encore traités (en mode écriture, protégé par son propre verrou) */
+        private final ByteBuffer tamponLecture = ByteBuffer.allocate(TAILLE_TAMPON_LECTURE);
+
+        /** Décodeur des commandes (utilisé par le travailleur, avec le verrou du tampon) */
+        private final DecodeurCommandes decodeur = new DecodeurCommandes();
+
+        /** Indique que le client a fermé son côté de la connexion */
+        private boolean finDeFlux;
+
+        /** Indique que la lecture est suspendue faute de place dans le tampon */
+        private boolean lectureSuspendue;
+
+        /** Réponses en attente d'écriture */
+        private final Queue<ByteBuffer> reponses = new ConcurrentLinkedQueue<>();
+
+        /** Indique qu'un travailleur traite actuellement les commandes de la session */
+        private final AtomicBoolean enTraitement = new AtomicBoolean(false);
+
+        /** Indique que la session doit être fermée une fois les réponses envoyées */
+        private volatile boolean fermetureDemandee;
+
+        Session(SocketChannel canal, SelectionKey cle, BoucleEvenements boucle) {
+            this.canal = canal;
+            this.cle = cle;
+            this.boucle = boucle;
+            this.serveur = new ServeurFTP(canal.socket(), new SortieReponses());
+        }
+
+        /**
+         * Envoie le message de bienvenue
+         */
+        void ouvrir() {
+            serveur.envoyerBienvenue();
+        }
+
+        /**
+         * Lit les octets disponibles dans le tampon de la session
+         * Appelée dans le thread réacteur
+         */
+        void lire() {
+            synchronized (tamponLecture) {
+                if (!tamponLecture.hasRemaining()) {
+                    if (contientCommande()) {
+                        // Le travailleur n'a pas encore consommé les commandes reçues :
+                        // la lecture reprendra quand il aura libéré de la place
+                        lectureSuspendue = true;
+                        cle.interestOps(cle.interestOps() & ~SelectionKey.OP_READ);
+                        return;
+                    }
+                    // Ligne trop longue : abandonnée jusqu'à sa fin de ligne
+                    decodeur.ignorerLigne();
+                    tamponLecture.clear();
+                }
+
+                int octetsLus;
+                try {
+                    octetsLus = canal.read(tamponLecture);
+                } catch (IOException e) {
+                    octetsLus = -1;
+                }
+                if (octetsLus == -1) {
+                    finDeFlux = true;
+                    cle.interestOps(cle.interestOps() & ~SelectionKey.OP_READ);
+                } else if (!contientCommande()) {
+                    return;
+                }
+            }
+            planifier();
+        }
+
+        /**
+         * Confie le traitement des commandes en attente à un travailleur,
+         * sauf si un travailleur s'en occupe déjà
+         */
+        private void planifier() {
+            if (enTraitement.compareAndSet(false, true)) {
+                executeurCommandes.execute(this::traiterCommandes);
+            }
+        }
+
+        /**
+         * Traite les commandes en attente dans l'ordre de réception
+         * Appelée dans un thread travailleur
+         */
+        private void traiterCommandes() {
+            do {
+                // Les commandes qui suivent la première ont été reçues pendant le traitement
+                // des précédentes, sans que le client attende leurs réponses (pipeline)
+                boolean anticipee = false;
+                while (!fermetureDemandee && extraireCommande()) {
+                    if (!serveur.traiterCommande(decodeur.verbe(), decodeur.argument(), anticipee)) {
+                        demanderFermeture();
+                    }
+                    anticipee = true;
+                }
+                enTraitement.set(false);
+            } while (!fermetureDemandee && aTraiter() && enTraitement.compareAndSet(false, true));
+        }
+
+        /**
+         * Extrait la prochaine commande du tampon de lecture
+         * Appelée dans un thread travailleur
+         *
+         * @return true si une commande a été décodée
+         */
+        private boolean extraireCommande() {
+            synchronized (tamponLecture) {
+                tamponLecture.flip();
+                boolean extraite = decodeur.extraire(tamponLecture);
+                if (!extraite && finDeFlux) {
+                    // Dernière commande éventuelle sans fin de ligne, puis fermeture
+                    extraite = decodeur.extraireReste(tamponLecture);
+                    if (!extraite) {
+                        demanderFermeture();
+                    }
+                }
+                tamponLecture.compact();
+
+                if (lectureSuspendue && extraite) {
+                    lectureSuspendue = false;
+                    boucle.executer(this::reprendreLecture);
+                }
+                return extraite;
+            }
+        }
+
+        /**
+         * Indique s'il reste une commande complète ou une fin de flux à traiter
+         *
+         * @return true si un travailleur doit être planifié
+         */
+        private boolean aTraiter() {
+            synchronized (tamponLecture) {
+                return finDeFlux || contientCommande();
+            }
+        }
+
+        /**
+         * Cherche une fin de ligne parmi les octets reçus
+         * Appelée avec le verrou du tampon
+         *
+         * @return true si une commande complète est disponible
+         */
+        private boolean contientCommande() {
+            for (int i = 0; i < tamponLecture.position(); i++) {
+                if (tamponLecture.get(i) == '\n') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Réactive la lecture après une suspension
+         * Appelée dans le thread réacteur
+         */
+        private void reprendreLecture() {
+            if (cle.isValid()) {
+                cle.interestOps(cle.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Demande la fermeture de la session une fois les réponses envoyées
+         */
+        private void demanderFermeture() {
+            fermetureDemandee = true;
+            boucle.executer(this::ecrire);
+        }
+
+        /**
+         * Écrit les réponses en attente, puis ferme la session si demandé
+         * Appelée dans le thread réacteur
+         */
+        void ecrire() {
+            if (!cle.isValid()) {
+                return;
+            }
+            try {
+                ByteBuffer reponse;
+                while ((reponse = reponses.peek()) != null) {
+                    canal.write(reponse);
+                    if (reponse.hasRemaining()) {
+                        cle.interestOps(cle.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    reponses.poll();
+                }
+                cle.interestOps(cle.interestOps() & ~SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                fermetureDemandee = true;
+            }
+
+            if (fermetureDemandee) {
+                cle.cancel();
+                serveur.fermerConnexions();
+                admission.fermerSession();
+            }
+        }
+
+        /**
+         * Flux de réponses : les octets écrits par ServeurFTP sont accumulés,
+         * puis confiés au réacteur à chaque flush
+         */
+        private class SortieReponses extends OutputStream {
+
+            /** Octets écrits depuis le dernier flush */
+            private final ByteArrayOutputStream enCours = new ByteArrayOutputStream();
+
+            @Override
+            public synchronized void write(int octet) {
+                enCours.write(octet);
+            }
+
+            @Override
+            public synchronized void write(byte[] octets, int debut, int longueur) {
+                enCours.write(octets, debut, longueur);
+            }
+
+            @Override
+            public synchronized void flush() {
+                if (enCours.size() == 0) {
+                    return;
+                }
+                reponses.add(ByteBuffer.wrap(enCours.toByteArray()));
+                enCours.reset();
+                boucle.executer(Session.this::ecrire);
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.net.*;
+import java.util.Locale;
+
+/**
+ * ReglageTransfert - Réglage adaptatif d'une connexion de données
+ *
+ * Chaque connexion de données a son réglage, conservé d'un transfert à l'autre
+ * lorsque la connexion est réutilisée (MODE B) :
+ * - TCP_NODELAY est activé, sauf si les données sont précédées de petits en-têtes
+ *   écrits séparément (mode bloc), que l'algorithme de Nagle regroupe avec les données
+ * - le tampon de réception est agrandi avant l'établissement de la connexion
+ *   (preparer), pour que la fenêtre TCP annoncée puisse grandir
+ * - pendant le transfert, le débit est mesuré par fenêtres de DUREE_FENETRE : la
+ *   taille des morceaux (lectures et écritures) est doublée ou réduite de moitié tant
+ *   que le débit s'améliore (recherche locale), et les tampons d'émission et de
+ *   réception de la socket sont agrandis au double du produit débit × RTT
+ *
+ * Le RTT est estimé par la durée d'établissement de la connexion de données : un
+ * connect() dure un aller-retour ; côté écoute, l'attente de la connexion du client
+ * en est un majorant.
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public final class ReglageTransfert {
+
+    // ==================== CONSTANTES ====================
+
+    /** Taille minimale d'un morceau */
+    public static final int MORCEAU_MIN = PoolTampons.TAILLE_MIN;
+
+    /** Taille maximale d'un morceau */
+    public static final int MORCEAU_MAX = PoolTampons.TAILLE_MAX;
+
+    /** Tampon de réception fixé avant l'établissement de la connexion */
+    public static final int TAMPON_SOCKET_INITIAL = 1024 * 1024;
+
+    /** Taille maximale des tampons de la socket */
+    private static final int TAMPON_SOCKET_MAX = 16 * 1024 * 1024;
+
+    /** Durée minimale d'une fenêtre de mesure du débit */
+    private static final long DUREE_FENETRE = 50_000_000L; // 50 ms
+
+    /** Variation relative du débit en deçà de laquelle il est considéré stable */
+    private static final double SEUIL_VARIATION = 0.05;
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Socket de la connexion de données */
+    private final Socket socket;
+
+    /** RTT estimé, en nanosecondes */
+    private final long rtt;
+
+    /** Taille courante des morceaux */
+    private int tailleMorceau;
+
+    /** Sens de la dernière modification de la taille des morceaux (+1 : doublée, -1 : réduite) */
+    private int sens = 1;
+
+    /** Transfert en cours : émission (true) ou réception (false) */
+    private boolean emission;
+
+    /** Début de la fenêtre de mesure courante */
+    private long debutFenetre;
+
+    /** Octets transférés dans la fenêtre courante */
+    private long octetsFenetre;
+
+    /** Débit de la fenêtre précédente (octets/s, 0 si aucune) */
+    private double debitPrecedent;
+
+    /** Meilleur débit mesuré sur la connexion (octets/s) */
+    private double debitMax;
+
+    // ==================== CONSTRUCTEUR ====================
+
+    /**
+     * Règle une connexion de données qui vient d'être établie
+     *
+     * @param socket Socket de la connexion
+     * @param dureeEtablissement Durée de l'établissement de la connexion (ns), estimation du RTT
+     * @param enTetesSepares true si de petits en-têtes précèdent les données (mode bloc)
+     */
+    public ReglageTransfert(Socket socket, long dureeEtablissement, boolean enTetesSepares) {
+        this.socket = socket;
+        this.rtt = Math.max(dureeEtablissement, 1);
+        this.tailleMorceau = Math.max(MORCEAU_MIN, Math.min(MORCEAU_MAX, PoolTampons.tailleParDefaut()));
+        try {
+            socket.setTcpNoDelay(!enTetesSepares);
+        } catch (SocketException e) {
+            // Option non prise en charge : réglage par défaut du système
+        }
+    }
+
+    /**
+     * Agrandit le tampon de réception d'une socket avant sa connexion (ou d'une socket
+     * d'écoute avant bind : les connexions acceptées en héritent). L'échelle de la
+     * fenêtre TCP étant négociée à l'établissement, c'est la seule occasion de la fixer.
+     *
+     * @param socket Socket non connectée
+     */
+    public static void preparer(Socket socket) {
+        try {
+            socket.setReceiveBufferSize(TAMPON_SOCKET_INITIAL);
+        } catch (SocketException e) {
+            // Réglage par défaut du système
+        }
+    }
+
+    /**
+     * Agrandit le tampon de réception des connexions qu'acceptera une socket d'écoute
+     *
+     * @param ecouteur Socket d'écoute non liée
+     */
+    public static void preparer(ServerSocket ecouteur) {
+        try {
+            ecouteur.setReceiveBufferSize(TAMPON_SOCKET_INITIAL);
+        } catch (SocketException e) {
+            // Réglage par défaut du système
+        }
+    }
+
+    // ==================== MESURE ET ADAPTATION ====================
+
+    /**
+     * Commence un transfert sur la connexion
+     * La taille des morceaux apprise par les transferts précédents est conservée.
+     *
+     * @param envoi true si les données sont envoyées, false si elles sont reçues
+     */
+    public void debuter(boolean envoi) {
+        emission = envoi;
+        debutFenetre = System.nanoTime();
+        octetsFenetre = 0;
+        debitPrecedent = 0;
+    }
+
+    /**
+     * Taille des morceaux à lire ou écrire
+     *
+     * @return Taille en octets (entre MORCEAU_MIN et MORCEAU_MAX)
+     */
+    public int tailleMorceau() {
+        return tailleMorceau;
+    }
+
+    /**
+     * Comptabilise un morceau transféré et adapte le réglage à la fin de chaque fenêtre
+     *
+     * @param octets Octets transférés
+     */
+    public void enregistrer(long octets) {
+        octetsFenetre += octets;
+        long maintenant = System.nanoTime();
+        long duree = maintenant - debutFenetre;
+        if (duree < DUREE_FENETRE) {
+            return;
+        }
+
+        double debit = octetsFenetre * 1e9 / duree;
+        debitMax = Math.max(debitMax, debit);
+        if (debitPrecedent > 0) {
+            if (debit < debitPrecedent * (1 - SEUIL_VARIATION)) {
+                sens = -sens; // La dernière modification a dégradé le débit
+                modifierMorceau();
+            } else if (debit > debitPrecedent * (1 + SEUIL_VARIATION)) {
+                modifierMorceau(); // Amélioration : continuer dans le même sens
+            }
+        } else {
+            modifierMorceau(); // Première mesure : essayer la taille voisine
+        }
+        agrandirTamponsSocket(debit);
+
+        debitPrecedent = debit;
+        debutFenetre = maintenant;
+        octetsFenetre = 0;
+    }
+
+    /**
+     * Résumé du réglage, au format du journal des transferts
+     *
+     * @return Champs clé=valeur séparés par des espaces
+     */
+    public String resume() {
+        int envoi = -1;
+        int reception = -1;
+        boolean sansDelai = false;
+        try {
+            envoi = socket.getSendBufferSize();
+            reception = socket.getReceiveBufferSize();
+            sansDelai = socket.getTcpNoDelay();
+        } catch (SocketException e) {
+            // Socket fermée : valeurs inconnues
+        }
+        return String.format(Locale.ROOT, "morceau_ko=%d sndbuf_ko=%d rcvbuf_ko=%d nodelay=%b rtt_us=%d debit_max_ko_s=%d",
+            tailleMorceau / 1024, envoi / 1024, reception / 1024, sansDelai, rtt / 1000, (long) (debitMax / 1024));
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Double ou réduit de moitié la taille des morceaux, selon le sens courant
+     */
+    private void modifierMorceau() {
+        int nouvelle = sens > 0 ? tailleMorceau * 2 : tailleMorceau / 2;
+        if (nouvelle < MORCEAU_MIN || nouvelle > MORCEAU_MAX) {
+            sens = -sens; // Borne atteinte : la prochaine modification repartira dans l'autre sens
+            return;
+        }
+        tailleMorceau = nouvelle;
+    }
+
+    /**
+     * Agrandit le tampon de la socket utilisé par le transfert en cours au double du
+     * produit débit × RTT, pour que la fenêtre TCP ne limite pas le débit
+     * Les tampons ne sont jamais réduits en cours de connexion.
+     *
+     * @param debit Débit mesuré (octets/s)
+     */
+    private void agrandirTamponsSocket(double debit) {
+        long cible = Math.min(TAMPON_SOCKET_MAX, (long) (2 * debit * rtt / 1e9));
+        try {
+            if (emission && cible > socket.getSendBufferSize()) {
+                socket.setSendBufferSize((int) cible);
+            } else if (!emission && cible > socket.getReceiveBufferSize()) {
+                socket.setReceiveBufferSize((int) cible);
+            }
+        } catch (IOException e) {
+            // Socket fermée entre-temps : le transfert échouera de lui-même
+        }
+    }
+}
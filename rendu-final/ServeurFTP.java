@@ -1,7 +1,15 @@
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.nio.file.*;
+import java.nio.file.attribute.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.*;
 
 /**
  * ServeurFTP - Implémentation complète d'un serveur FTP
@@ -11,6 +19,10 @@ import java.util.*;
  * - Exercice 2 : Mode actif (PORT) et mode passif (PASV)
  * - Exercice 3 : Manipulation de fichiers (LIST, CWD, RETR)
  * - Exercice 4 : Gestion des droits par utilisateur
+ * - Téléchargement en lot (MRET) : un répertoire ou un motif, en une archive
+ * - Reprise et téléchargement par segments (REST, SIZE)
+ * - Modes de transfert flux, bloc et compressé (MODE S, B, Z)
+ * - Téléversement (STOR, APPE, ALLO) dans la racine des utilisateurs autorisés à écrire
  *
  * @author TP2 - ARSIR Polytech 4A
  * @version Finale - Exercices 1-4
@@ -26,9 +38,99 @@ public class ServeurFTP {
     private static final int PORT_PASSIF_MIN = 5000;
     private static final int PORT_PASSIF_MAX = 5100;
 
+    /** Ports du mode passif, partagés par toutes les sessions */
+    private static final PoolPortsPassifs PORTS_PASSIFS = new PoolPortsPassifs(PORT_PASSIF_MIN, PORT_PASSIF_MAX);
+
+    /** Délai maximal d'attente d'une connexion de données sur un écouteur partagé (ms) */
+    private static final long DELAI_CONNEXION_DONNEES = 60_000;
+
     /** Répertoire racine contenant les données */
     private static final String REPERTOIRE_RACINE = "Data";
 
+    /** Taille du tampon de réception des commandes (longueur maximale d'une ligne) */
+    private static final int TAILLE_TAMPON_COMMANDES = 8192;
+
+    /** Taille initiale du tampon des réponses d'une commande */
+    private static final int TAILLE_TAMPON_REPONSES = 512;
+
+    /** Taille au-delà de laquelle le tampon des réponses est réduit après envoi */
+    private static final int TAILLE_TAMPON_REPONSES_MAX = 64 * 1024;
+
+    /** Taille du tampon de construction de LIST (envoyé sur la connexion de données par blocs de cette taille) */
+    private static final int TAILLE_TAMPON_LISTE = 64 * 1024;
+
+    /** Octets écrits entre deux synchronisations sur disque en politique CONTINUE */
+    private static final long OCTETS_ENTRE_SYNCHRONISATIONS = 64L * 1024 * 1024;
+
+    /** Option de MRET demandant la compression de l'archive */
+    private static final String OPTION_MRET_COMPRESSION = "-z";
+
+    /** Séparateur de ligne des réponses et des listes */
+    private static final String SEPARATEUR_LIGNE = System.lineSeparator();
+
+    /** Utiliser FileChannel.transferTo (sendfile) pour RETR lorsque c'est possible */
+    private static boolean transfertZeroCopie = true;
+
+    /** Politique de synchronisation sur disque des fichiers téléversés */
+    private static Synchronisation synchronisation = Synchronisation.FIN;
+
+    /** Mode événementiel : connexions de contrôle multiplexées par ReacteurFTP */
+    private static boolean modeNio = false;
+
+    /** Nombre de threads réacteurs en mode événementiel */
+    private static int nombreReacteurs = Runtime.getRuntime().availableProcessors();
+
+    /** Exécuter les sessions (et donc leurs transferts) sur des threads virtuels */
+    private static boolean threadsVirtuels = false;
+
+    /** Nombre maximal de répertoires dans le cache des listes (0 = cache désactivé) */
+    private static int entreesCacheListes = 1024;
+
+    /** Taille totale maximale du cache des listes */
+    private static final long OCTETS_CACHE_LISTES = 64L * 1024 * 1024;
+
+    /** Cache des listes de répertoires partagé par toutes les sessions (null si désactivé) */
+    private static CacheListes cacheListes;
+
+    /** Taille du cache des fichiers populaires en Mo (0 = cache désactivé) */
+    private static int megaOctetsCacheFichiers = 0;
+
+    /** Taille maximale d'un fichier conservé dans le cache des fichiers populaires */
+    private static final long TAILLE_MAX_FICHIER_EN_CACHE = 16L * 1024 * 1024;
+
+    /** Cache des fichiers populaires partagé par toutes les sessions (null si désactivé) */
+    private static CacheFichiers cacheFichiers;
+
+    /** Taille minimale (Ko) des fichiers précompressés pour le MODE Z (0 = désactivé) */
+    private static int koPrecompression = 0;
+
+    /** Variantes précompressées des fichiers servis en MODE Z (null si désactivé) */
+    private static CachePrecompresse cachePrecompresse;
+
+    /** Exécuteur des transferts de données, distinct des threads de contrôle */
+    private static ExecutorService executeurTransferts;
+
+    /** Nombre d'écouteurs passifs permanents (0 = une socket d'écoute par PASV) */
+    private static int nombreEcouteursPassifs = 0;
+
+    /** Écouteurs passifs permanents partagés (null si désactivés) */
+    private static EcouteursPassifs ecouteursPassifs;
+
+    /** Niveau minimal des messages du journal */
+    private static JournalFTP.Niveau niveauJournal = JournalFTP.Niveau.INFO;
+
+    /** Fichier du journal des transferts (null = journal principal) */
+    private static String fichierJournalTransferts;
+
+    /** Compteur des sessions ouvertes depuis le démarrage (numérotation des sessions) */
+    private static final AtomicLong COMPTEUR_SESSIONS = new AtomicLong();
+
+    /** Nombre maximal de sessions simultanées (0 = illimité) */
+    private static int sessionsMax = 0;
+
+    /** Nombre maximal de sessions en attente d'un thread lorsque sessionsMax est atteint */
+    private static int fileAttenteMax = 0;
+
     /** Base de données des utilisateurs (login -> mot de passe) */
     private static final Map<String, String> BASE_UTILISATEURS = new HashMap<>();
 
@@ -37,33 +139,165 @@ public class ServeurFTP {
         BASE_UTILISATEURS.put("anonymous", ""); // Accepte n'importe quel mot de passe
     }
 
+    /** Utilisateurs autorisés à téléverser (STOR, APPE, ALLO) ; les autres sont en lecture seule */
+    private static final Set<String> UTILISATEURS_ECRITURE = Set.of("foo");
+
     // ==================== CODES DE RÉPONSE FTP ====================
 
-    private static final String CODE_150 = "150 Ouverture de la connexion en cours";
-    private static final String CODE_200 = "200 Action demandée accomplie avec succès";
-    private static final String CODE_213 = "213"; // Suivi de la taille du fichier
-    private static final String CODE_220 = "220 Serveur FTP prêt";
-    private static final String CODE_221 = "221 Fermeture de la connexion";
-    private static final String CODE_226 = "226 Transfert terminé avec succès";
-    private static final String CODE_227 = "227 Mode passif activé";
-    private static final String CODE_230 = "230 Utilisateur connecté";
-    private static final String CODE_250 = "250 Répertoire courant changé";
-    private static final String CODE_331 = "331 Utilisateur reconnu, en attente du mot de passe";
-    private static final String CODE_430 = "430 Identifiant ou mot de passe incorrect";
-    private static final String CODE_501 = "501 Erreur de syntaxe";
-    private static final String CODE_530 = "530 Non authentifié";
-    private static final String CODE_550 = "550 Fichier non trouvé ou accès refusé";
+    /** Réponses fixes encodées une fois pour toutes (avec fin de ligne), indexées par leur constante */
+    private static final Map<String, byte[]> REPONSES_ENCODEES = new IdentityHashMap<>();
+
+    private static final String CODE_125 = reponseFixe("125 Connexion de données déjà ouverte, début du transfert");
+    private static final String CODE_150 = reponseFixe("150 Ouverture de la connexion en cours");
+    private static final String CODE_200 = reponseFixe("200 Action demandée accomplie avec succès");
+    private static final String CODE_200_MODE_S = reponseFixe("200 Mode de transfert : flux");
+    private static final String CODE_200_MODE_B = reponseFixe("200 Mode de transfert : bloc");
+    private static final String CODE_200_MODE_Z = reponseFixe("200 Mode de transfert : compressé (deflate)");
+    private static final String CODE_211_DEBUT = reponseFixe("211-Statistiques du serveur");
+    private static final String CODE_211 = reponseFixe("211 Fin des statistiques");
+    private static final String CODE_213 = reponseFixe("213"); // Suivi de la taille du fichier
+    private static final String CODE_220 = reponseFixe("220 Serveur FTP prêt");
+    private static final String CODE_221 = reponseFixe("221 Fermeture de la connexion");
+    private static final String CODE_226 = reponseFixe("226 Transfert terminé avec succès");
+    private static final String CODE_226_ABOR = reponseFixe("226 Aucun transfert en cours");
+    private static final String CODE_227 = reponseFixe("227 Mode passif activé");
+    private static final String CODE_230 = reponseFixe("230 Utilisateur connecté");
+    private static final String CODE_250 = reponseFixe("250 Répertoire courant changé");
+    private static final String CODE_350 = reponseFixe("350 Position de reprise enregistrée, en attente de RETR ou STOR");
+    private static final String CODE_331 = reponseFixe("331 Utilisateur reconnu, en attente du mot de passe");
+    private static final String CODE_421 = reponseFixe("421 Service non disponible, réessayez plus tard");
+    private static final String CODE_425 = reponseFixe("425 Impossible d'ouvrir la connexion de données");
+    private static final String CODE_426 = reponseFixe("426 Connexion fermée, transfert interrompu");
+    private static final String CODE_430 = reponseFixe("430 Identifiant ou mot de passe incorrect");
+    private static final String CODE_500 = reponseFixe("500 Ligne de commande trop longue");
+    private static final String CODE_501 = reponseFixe("501 Erreur de syntaxe");
+    private static final String CODE_504 = reponseFixe("504 Paramètre non pris en charge");
+    private static final String CODE_530 = reponseFixe("530 Non authentifié");
+    private static final String CODE_550 = reponseFixe("550 Fichier non trouvé ou accès refusé");
+    private static final String CODE_550_ECRITURE = reponseFixe("550 Écriture non autorisée pour cet utilisateur");
+    private static final String CODE_554 = reponseFixe("554 Position de reprise invalide");
+
+    // ==================== TABLE DES COMMANDES ====================
+
+    /** Taille de la table des commandes (puissance de 2) */
+    private static final int TAILLE_TABLE_COMMANDES = 64;
+
+    /** Code du verbe ABOR, traité immédiatement même en pipeline */
+    private static final int VERBE_ABOR = DecodeurCommandes.coder("ABOR");
+
+    /** Codes des verbes après lesquels la position de reprise (REST) reste valable */
+    private static final int VERBE_REST = DecodeurCommandes.coder("REST");
+    private static final int VERBE_RETR = DecodeurCommandes.coder("RETR");
+    private static final int VERBE_STOR = DecodeurCommandes.coder("STOR");
+
+    /** Commandes indexées par le code de leur verbe (adressage ouvert) */
+    private static final Commande[] TABLE_COMMANDES = new Commande[TAILLE_TABLE_COMMANDES];
+
+    static {
+        enregistrerCommande("USER", false, (serveur, argument) -> {
+            serveur.gererCommandeUser(argument);
+            return true;
+        });
+        enregistrerCommande("PASS", false, (serveur, argument) -> {
+            serveur.gererCommandePass(argument);
+            return true;
+        });
+        enregistrerCommande("PORT", false, (serveur, argument) -> {
+            serveur.gererCommandePort(argument);
+            return true;
+        });
+        enregistrerCommande("PASV", false, (serveur, argument) -> {
+            serveur.gererCommandePasv();
+            return true;
+        });
+        enregistrerCommande("LIST", false, (serveur, argument) -> {
+            serveur.gererCommandeList();
+            return true;
+        });
+        enregistrerCommande("CWD", false, (serveur, argument) -> {
+            serveur.gererCommandeCwd(argument);
+            return true;
+        });
+        enregistrerCommande("RETR", false, (serveur, argument) -> {
+            serveur.gererCommandeRetr(argument);
+            return true;
+        });
+        enregistrerCommande("REST", false, (serveur, argument) -> {
+            serveur.gererCommandeRest(argument);
+            return true;
+        });
+        enregistrerCommande("SIZE", false, (serveur, argument) -> {
+            serveur.gererCommandeSize(argument);
+            return true;
+        });
+        enregistrerCommande("STOR", false, (serveur, argument) -> {
+            serveur.gererCommandeStor(argument, false);
+            return true;
+        });
+        enregistrerCommande("APPE", false, (serveur, argument) -> {
+            serveur.gererCommandeStor(argument, true);
+            return true;
+        });
+        enregistrerCommande("ALLO", false, (serveur, argument) -> {
+            serveur.gererCommandeAllo(argument);
+            return true;
+        });
+        enregistrerCommande("MRET", false, (serveur, argument) -> {
+            serveur.gererCommandeMret(argument);
+            return true;
+        });
+        enregistrerCommande("ABOR", true, (serveur, argument) -> {
+            serveur.gererCommandeAbor();
+            return true;
+        });
+        enregistrerCommande("NOOP", true, (serveur, argument) -> {
+            serveur.envoyerReponse(CODE_200);
+            return true;
+        });
+        enregistrerCommande("STAT", true, (serveur, argument) -> {
+            serveur.gererCommandeStat();
+            return true;
+        });
+        enregistrerCommande("MODE", false, (serveur, argument) -> {
+            serveur.gererCommandeMode(argument);
+            return true;
+        });
+        enregistrerCommande("QUIT", false, (serveur, argument) -> {
+            serveur.gererCommandeQuit();
+            return false;
+        });
+    }
 
     // ==================== VARIABLES D'INSTANCE ====================
 
+    /** Numéro de la session (journal des transferts) */
+    private final long numeroSession = COMPTEUR_SESSIONS.incrementAndGet();
+
     /** Socket de contrôle pour communiquer avec le client */
     private Socket socketControle;
 
-    /** Lecteur pour recevoir les commandes du client */
-    private BufferedReader lecteur;
+    /** Flux d'envoi des réponses au client */
+    private final OutputStream sortieReponses;
+
+    /** Réponses accumulées pendant la commande en cours, envoyées en une seule écriture */
+    private byte[] tamponReponses = new byte[TAILLE_TAMPON_REPONSES];
 
-    /** Écrivain pour envoyer les réponses au client */
-    private PrintWriter ecrivain;
+    /** Nombre d'octets en attente dans tamponReponses */
+    private int longueurReponses;
+
+    /** Verrou protégeant le tampon des réponses (partagé avec le thread de transfert) */
+    private final Object verrouReponses = new Object();
+
+    /** Tampon en cours d'écriture, échangé avec tamponReponses par le détenteur de verrouEcriture */
+    private byte[] tamponEcriture = new byte[TAILLE_TAMPON_REPONSES];
+
+    /**
+     * Verrou des écritures sur la connexion de contrôle, qui les garde dans l'ordre
+     * Jamais pris avec verrouReponses : une écriture bloquée (client qui ne lit plus)
+     * n'empêche pas les autres threads d'ajouter leurs réponses, et un thread virtuel
+     * qui y attend n'est pas épinglé à son porteur.
+     */
+    private final ReentrantLock verrouEcriture = new ReentrantLock();
 
     /** Nom d'utilisateur authentifié (null si pas encore authentifié) */
     private String utilisateurCourant;
@@ -77,9 +311,30 @@ public class ServeurFTP {
     /** Socket serveur pour le mode passif */
     private ServerSocket socketServeurPassif;
 
+    /** Port de l'écouteur passif partagé annoncé par PASV (0 si aucun) */
+    private int portEcouteurPartage;
+
     /** Socket de données pour transférer les fichiers */
     private Socket socketDonnees;
 
+    /** Réglage adaptatif de la connexion de données (morceaux, tampons de la socket) */
+    private ReglageTransfert reglageDonnees;
+
+    /** Transfert de données en cours (null si aucun) */
+    private CompletableFuture<Void> transfertEnCours;
+
+    /** Thread exécutant le transfert en cours (pour ABOR) */
+    private Thread threadTransfert;
+
+    /** Verrou protégeant threadTransfert */
+    private final Object verrouTransfert = new Object();
+
+    /** Enregistrement du transfert en cours pour le journal des transferts */
+    private JournalFTP.Transfert transfertJournalise;
+
+    /** Indique que le transfert en cours a été interrompu par ABOR */
+    private volatile boolean transfertAbandonne;
+
     /** Adresse IP du client pour le mode actif */
     private InetAddress adresseClientActif;
 
@@ -89,12 +344,35 @@ public class ServeurFTP {
     /** Mode de transfert : "actif" ou "passif" */
     private String modeTransfert;
 
+    /** Position de départ du prochain RETR ou STOR (commande REST), 0 par défaut */
+    private long positionReprise;
+
+    /** Taille annoncée du prochain téléversement (commande ALLO), 0 si inconnue */
+    private long tailleAnnoncee;
+
+    /** Mode bloc (MODE B) : la connexion de données est conservée d'un transfert à l'autre */
+    private boolean modeBloc;
+
+    /** Mode compressé (MODE Z) : les données sont compressées par deflate */
+    private boolean modeCompresse;
+
     /** Répertoire courant de l'utilisateur */
     private Path repertoireCourant;
 
     /** Répertoire racine de l'utilisateur (pour les restrictions d'accès) */
     private Path repertoireRacineUtilisateur;
 
+    /** Tampon de construction de LIST, réutilisé d'une commande à l'autre */
+    private ByteBuffer tamponListe;
+
+    /** Ligne de LIST en cours de construction, réutilisée d'une entrée à l'autre */
+    private final StringBuilder ligneListe = new StringBuilder(128);
+
+    /** Encodeur des lignes de LIST (jeu de caractères par défaut, comme les réponses) */
+    private final CharsetEncoder encodeurListe = Charset.defaultCharset().newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
     // ==================== CONSTRUCTEUR ====================
 
     /**
@@ -105,8 +383,24 @@ public class ServeurFTP {
      */
     public ServeurFTP(Socket socketControle) throws IOException {
         this.socketControle = socketControle;
-        this.lecteur = new BufferedReader(new InputStreamReader(socketControle.getInputStream()));
-        this.ecrivain = new PrintWriter(socketControle.getOutputStream(), true);
+        this.sortieReponses = socketControle.getOutputStream();
+        this.estAuthentifie = false;
+        this.utilisateurCourant = null;
+        this.utilisateurEnCoursConnexion = null;
+        this.modeTransfert = null;
+    }
+
+    /**
+     * Crée une instance du serveur FTP dont les commandes sont fournies de l'extérieur
+     * (mode événementiel, voir ReacteurFTP) : aucune lecture bloquante n'est faite
+     * sur la socket de contrôle, les réponses sont écrites dans le flux fourni
+     *
+     * @param socketControle Socket de contrôle établie avec le client
+     * @param sortieReponses Flux recevant les réponses destinées au client
+     */
+    ServeurFTP(Socket socketControle, OutputStream sortieReponses) {
+        this.socketControle = socketControle;
+        this.sortieReponses = sortieReponses;
         this.estAuthentifie = false;
         this.utilisateurCourant = null;
         this.utilisateurEnCoursConnexion = null;
@@ -118,87 +412,156 @@ public class ServeurFTP {
     /**
      * Démarre le traitement des commandes du client
      * Boucle principale qui lit et traite chaque commande reçue
+     * Les commandes sont découpées directement dans le tampon de réception
      */
     public void demarrer() {
         try {
             // Message de bienvenue
-            envoyerReponse(CODE_220);
+            envoyerBienvenue();
 
-            String ligne;
-            while ((ligne = lecteur.readLine()) != null) {
-                ligne = ligne.trim();
+            InputStream entree = socketControle.getInputStream();
+            ByteBuffer tampon = ByteBuffer.allocate(TAILLE_TAMPON_COMMANDES);
+            DecodeurCommandes decodeur = new DecodeurCommandes();
+            tampon.limit(0);
 
-                if (ligne.isEmpty()) {
-                    continue;
+            while (true) {
+                // Les commandes qui suivent la première d'une même lecture ont été
+                // envoyées sans attendre de réponse (pipeline)
+                boolean anticipee = false;
+                while (decodeur.extraire(tampon)) {
+                    if (!traiterCommande(decodeur.verbe(), decodeur.argument(), anticipee)) {
+                        return;
+                    }
+                    anticipee = true;
                 }
 
-                System.out.println("[SERVEUR] Commande reçue : " + ligne);
-
-                // Traiter la commande
-                boolean continuer = traiterCommande(ligne);
-
-                if (!continuer) {
-                    break;
+                tampon.compact();
+                if (!tampon.hasRemaining()) {
+                    // Ligne trop longue : abandonnée jusqu'à sa fin de ligne
+                    decodeur.ignorerLigne();
+                    tampon.clear();
                 }
+                int octetsLus = entree.read(tampon.array(), tampon.position(), tampon.remaining());
+                if (octetsLus < 0) {
+                    // Dernière commande éventuelle sans fin de ligne
+                    tampon.flip();
+                    if (decodeur.extraireReste(tampon)) {
+                        traiterCommande(decodeur.verbe(), decodeur.argument(), false);
+                    }
+                    return;
+                }
+                tampon.position(tampon.position() + octetsLus);
+                tampon.flip();
             }
 
         } catch (IOException e) {
-            System.err.println("[ERREUR] Erreur lors de la communication : " + e.getMessage());
+            JournalFTP.erreur("Erreur lors de la communication : ", e.getMessage());
         } finally {
             fermerConnexions();
         }
     }
 
     /**
-     * Traite une commande reçue du client
-     *
-     * @param ligne Ligne de commande complète reçue
-     * @return true pour continuer, false pour arrêter le serveur
+     * Envoie le message de bienvenue au client
      */
-    private boolean traiterCommande(String ligne) {
-        String[] parties = ligne.split(" ", 2);
-        String commande = parties[0].toUpperCase();
-        String argument = parties.length > 1 ? parties[1] : "";
+    void envoyerBienvenue() {
+        envoyerReponse(CODE_220);
+        viderReponses();
+    }
 
-        switch (commande) {
-            case "USER":
-                gererCommandeUser(argument);
-                break;
+    /**
+     * Traite une commande décodée par DecodeurCommandes
+     *
+     * @param verbe Code du verbe (voir DecodeurCommandes.coder)
+     * @param argument Argument de la commande (chaîne vide si absent)
+     * @param anticipee true si la commande a été reçue à la suite d'autres commandes,
+     *                  sans que le client attende leurs réponses (pipeline)
+     * @return true pour continuer, false si le client a demandé la fermeture
+     */
+    boolean traiterCommande(int verbe, String argument, boolean anticipee) {
+        // REST ne vaut que pour le RETR ou le STOR qui le suit immédiatement
+        if (verbe != VERBE_REST && verbe != VERBE_RETR && verbe != VERBE_STOR) {
+            positionReprise = 0;
+        }
 
-            case "PASS":
-                gererCommandePass(argument);
-                break;
+        if (verbe == DecodeurCommandes.VERBE_LIGNE_TROP_LONGUE) {
+            JournalFTP.debug("Ligne de commande trop longue ignorée");
+            attendreTransfert();
+            envoyerReponse(CODE_500);
+            viderReponses();
+            return true;
+        }
 
-            case "PORT":
-                gererCommandePort(argument);
-                break;
+        Commande commande = rechercherCommande(verbe);
 
-            case "PASV":
-                gererCommandePasv();
-                break;
+        if (commande == null) {
+            JournalFTP.debug("Commande inconnue reçue");
+            attendreTransfert();
+            envoyerReponse(CODE_501);
+            viderReponses();
+            return true;
+        }
 
-            case "LIST":
-                gererCommandeList();
-                break;
+        if (JournalFTP.actif(JournalFTP.Niveau.DEBUG)) {
+            JournalFTP.debug("Commande reçue : ", argument.isEmpty() ? commande.nom : commande.nom + " " + argument);
+        }
 
-            case "CWD":
-                gererCommandeCwd(argument);
-                break;
+        // Pendant un transfert, seules ABOR, NOOP et STAT sont traitées immédiatement ;
+        // les autres commandes attendent sa fin pour conserver l'ordre des réponses.
+        // En pipeline, NOOP et STAT attendent aussi : leurs réponses doivent suivre
+        // celles des commandes qui les précèdent. ABOR interrompt toujours.
+        if (!commande.pendantTransfert || (anticipee && commande.verbe != VERBE_ABOR)) {
+            attendreTransfert();
+        }
 
-            case "RETR":
-                gererCommandeRetr(argument);
-                break;
+        // Les réponses de la commande partent ensemble, en une seule écriture
+        boolean continuer = commande.gestionnaire.traiter(this, argument);
+        viderReponses();
+        return continuer;
+    }
 
-            case "QUIT":
-                gererCommandeQuit();
-                return false;
+    /**
+     * Recherche une commande dans la table à partir du code de son verbe
+     *
+     * @param verbe Code du verbe
+     * @return Commande, ou null si le verbe est inconnu
+     */
+    private static Commande rechercherCommande(int verbe) {
+        if (verbe == DecodeurCommandes.VERBE_INCONNU) {
+            return null;
+        }
+        for (int i = indiceCommande(verbe); ; i = (i + 1) & (TAILLE_TABLE_COMMANDES - 1)) {
+            Commande commande = TABLE_COMMANDES[i];
+            if (commande == null || commande.verbe == verbe) {
+                return commande;
+            }
+        }
+    }
 
-            default:
-                envoyerReponse(CODE_501);
-                break;
+    /**
+     * Ajoute une commande à la table (initialisation de la classe)
+     *
+     * @param nom Verbe de la commande
+     * @param pendantTransfert true si la commande est traitée sans attendre la fin du transfert en cours
+     * @param gestionnaire Traitement de la commande
+     */
+    private static void enregistrerCommande(String nom, boolean pendantTransfert, GestionnaireCommande gestionnaire) {
+        int verbe = DecodeurCommandes.coder(nom);
+        int i = indiceCommande(verbe);
+        while (TABLE_COMMANDES[i] != null) {
+            i = (i + 1) & (TAILLE_TABLE_COMMANDES - 1);
         }
+        TABLE_COMMANDES[i] = new Commande(nom, verbe, pendantTransfert, gestionnaire);
+    }
 
-        return true;
+    /**
+     * Position initiale d'un verbe dans la table des commandes
+     *
+     * @param verbe Code du verbe
+     * @return Indice dans TABLE_COMMANDES
+     */
+    private static int indiceCommande(int verbe) {
+        return (verbe * 0x9E3779B9 >>> 26) & (TAILLE_TABLE_COMMANDES - 1);
     }
 
     // ==================== GESTION DES COMMANDES ====================
@@ -225,15 +588,15 @@ public class ServeurFTP {
                 this.estAuthentifie = true;
                 initialiserRepertoireUtilisateur();
                 envoyerReponse(CODE_230);
-                System.out.println("[SERVEUR] Utilisateur anonyme connecté");
+                JournalFTP.info("Utilisateur anonyme connecté");
             } else {
                 envoyerReponse(CODE_331);
-                System.out.println("[SERVEUR] Utilisateur reconnu : " + nomUtilisateur);
+                JournalFTP.info("Utilisateur reconnu : ", nomUtilisateur);
             }
         } else {
             this.utilisateurEnCoursConnexion = null;
             envoyerReponse(CODE_430);
-            System.out.println("[SERVEUR] Utilisateur inconnu : " + nomUtilisateur);
+            JournalFTP.info("Utilisateur inconnu : ", nomUtilisateur);
         }
     }
 
@@ -257,12 +620,12 @@ public class ServeurFTP {
             utilisateurCourant = utilisateurEnCoursConnexion;
             initialiserRepertoireUtilisateur();
             envoyerReponse(CODE_230);
-            System.out.println("[SERVEUR] Authentification réussie pour : " + utilisateurCourant);
+            JournalFTP.info("Authentification réussie pour : ", utilisateurCourant);
         } else {
             estAuthentifie = false;
             utilisateurEnCoursConnexion = null;
             envoyerReponse(CODE_430);
-            System.out.println("[SERVEUR] Échec d'authentification : mot de passe incorrect");
+            JournalFTP.info("Échec d'authentification : mot de passe incorrect");
         }
     }
 
@@ -281,9 +644,9 @@ public class ServeurFTP {
             this.repertoireRacineUtilisateur = racine;
             this.repertoireCourant = racine;
 
-            System.out.println("[SERVEUR] Répertoire initialisé : " + repertoireCourant);
+            JournalFTP.info("Répertoire initialisé : ", repertoireCourant);
         } catch (IOException e) {
-            System.err.println("[ERREUR] Impossible de créer le répertoire utilisateur : " + e.getMessage());
+            JournalFTP.erreur("Impossible de créer le répertoire utilisateur : ", e.getMessage());
         }
     }
 
@@ -300,6 +663,9 @@ public class ServeurFTP {
             return;
         }
 
+        // Nouvelles coordonnées : la connexion de données conservée en mode bloc n'est plus valable
+        fermerConnexionDonnees();
+
         try {
             // Parser l'argument : a,b,c,d,e,f
             String[] parties = argument.split(",");
@@ -322,11 +688,11 @@ public class ServeurFTP {
             this.modeTransfert = "actif";
 
             envoyerReponse(CODE_200);
-            System.out.println(String.format("[SERVEUR] Mode actif configuré : %s:%d", adresseIP, port));
+            JournalFTP.info("Mode actif configuré : ", adresseIP + ":" + port);
 
         } catch (Exception e) {
             envoyerReponse(CODE_501);
-            System.err.println("[ERREUR] Erreur lors du parsing de la commande PORT : " + e.getMessage());
+            JournalFTP.erreur("Erreur lors du parsing de la commande PORT : ", e.getMessage());
         }
     }
 
@@ -341,41 +707,44 @@ public class ServeurFTP {
             return;
         }
 
-        try {
-            // Fermer l'ancien socket serveur passif s'il existe
-            if (socketServeurPassif != null && !socketServeurPassif.isClosed()) {
-                socketServeurPassif.close();
-            }
-
+        // Fermer l'ancien socket serveur passif s'il existe et rendre son port,
+        // ainsi que la connexion de données conservée en mode bloc
+        fermerConnexionDonnees();
+        PORTS_PASSIFS.liberer(socketServeurPassif);
+        socketServeurPassif = null;
+        relacherEcouteurPartage();
+
+        // Écouteur permanent partagé : aucune socket à ouvrir (0 si tous sont déjà
+        // annoncés à une autre session de ce client : socket d'écoute dédiée)
+        int port = ecouteursPassifs != null ? ecouteursPassifs.choisirPort(socketControle.getInetAddress()) : 0;
+        if (port != 0) {
+            portEcouteurPartage = port;
+        } else {
             // Créer un nouveau socket serveur sur un port disponible
-            socketServeurPassif = creerSocketServeurPassif();
+            socketServeurPassif = PORTS_PASSIFS.acquerir();
 
             if (socketServeurPassif == null) {
-                envoyerReponse("425 Impossible d'ouvrir la connexion de données");
+                envoyerReponse(CODE_425);
                 return;
             }
 
-            int port = socketServeurPassif.getLocalPort();
-            this.modeTransfert = "passif";
-
-            // Obtenir l'adresse IP du serveur
-            String adresseIP = socketControle.getLocalAddress().getHostAddress();
+            port = socketServeurPassif.getLocalPort();
+        }
+        this.modeTransfert = "passif";
 
-            // Convertir au format FTP : a,b,c,d,e,f
-            String[] octets = adresseIP.split("\\.");
-            int p1 = port / 256;
-            int p2 = port % 256;
+        // Obtenir l'adresse IP du serveur
+        String adresseIP = socketControle.getLocalAddress().getHostAddress();
 
-            String reponse = String.format("227 Mode passif activé (%s,%s,%s,%s,%d,%d)",
-                octets[0], octets[1], octets[2], octets[3], p1, p2);
+        // Convertir au format FTP : a,b,c,d,e,f
+        String[] octets = adresseIP.split("\\.");
+        int p1 = port / 256;
+        int p2 = port % 256;
 
-            envoyerReponse(reponse);
-            System.out.println(String.format("[SERVEUR] Mode passif activé sur le port %d", port));
+        String reponse = String.format("227 Mode passif activé (%s,%s,%s,%s,%d,%d)",
+            octets[0], octets[1], octets[2], octets[3], p1, p2);
 
-        } catch (IOException e) {
-            envoyerReponse("425 Impossible d'ouvrir la connexion de données");
-            System.err.println("[ERREUR] Erreur lors de la création du socket passif : " + e.getMessage());
-        }
+        envoyerReponse(reponse);
+        JournalFTP.info("Mode passif activé sur le port ", port);
     }
 
     /**
@@ -388,44 +757,166 @@ public class ServeurFTP {
             return;
         }
 
-        try {
-            // Vérifier que le répertoire existe
-            if (!Files.isDirectory(repertoireCourant)) {
-                envoyerReponse(CODE_550);
-                return;
-            }
+        // Vérifier que le répertoire existe
+        if (!Files.isDirectory(repertoireCourant)) {
+            envoyerReponse(CODE_550);
+            return;
+        }
 
-            // Établir la connexion de données
-            envoyerReponse(CODE_150);
+        // Établir la connexion de données et envoyer la liste en arrière-plan
+        envoyerReponseOuverture();
 
-            if (!etablirConnexionDonnees()) {
-                envoyerReponse("425 Impossible d'ouvrir la connexion de données");
+        Path repertoire = repertoireCourant;
+        lancerTransfert("LIST", repertoire, () -> envoyerListe(repertoire), () -> "Liste envoyée avec succès");
+    }
+
+    /**
+     * Envoie la liste des fichiers d'un répertoire via la connexion de données
+     * Les entrées sont parcourues en flux (DirectoryStream), leurs attributs lus une
+     * seule fois, et les lignes accumulées dans un tampon réutilisable envoyé par
+     * blocs de TAILLE_TAMPON_LISTE octets
+     *
+     * @param repertoire Répertoire à lister
+     * @throws IOException Si erreur de lecture ou d'écriture
+     */
+    private void envoyerListe(Path repertoire) throws IOException {
+        WritableByteChannel canal = socketDonnees.getChannel() != null
+            ? socketDonnees.getChannel()
+            : Channels.newChannel(socketDonnees.getOutputStream());
+        ModeBloc.Sortie blocs = modeBloc ? new ModeBloc.Sortie(canal) : null;
+        try (ModeCompresse.Sortie compression = modeCompresse ? new ModeCompresse.Sortie(canal) : null) {
+            WritableByteChannel sortie = blocs != null ? blocs : compression != null ? compression : canal;
+
+            // Liste déjà en cache : envoi direct
+            byte[] listeEnCache = cacheListes != null ? cacheListes.obtenir(repertoire) : null;
+            if (listeEnCache != null) {
+                ByteBuffer contenu = ByteBuffer.wrap(listeEnCache);
+                while (contenu.hasRemaining()) {
+                    sortie.write(contenu);
+                }
+                transfertJournalise.ajouterOctets(listeEnCache.length);
+                if (blocs != null) {
+                    blocs.terminer();
+                }
+                if (compression != null) {
+                    compression.terminer();
+                }
                 return;
             }
 
-            // Envoyer la liste des fichiers via la connexion de données
-            PrintWriter ecrivainDonnees = new PrintWriter(socketDonnees.getOutputStream(), true);
+            // Surveiller le répertoire avant de le parcourir, puis conserver une copie de la liste
+            long version = cacheListes != null ? cacheListes.preparer(repertoire) : -1;
+            ByteArrayOutputStream copie = version >= 0 ? new ByteArrayOutputStream() : null;
 
-            try (var stream = Files.list(repertoireCourant)) {
-                stream.forEach(path -> {
-                    String info = String.format("%s %10d %s",
-                        Files.isDirectory(path) ? "DIR " : "FILE",
-                        obtenirTailleFichier(path),
-                        path.getFileName());
-                    ecrivainDonnees.println(info);
-                });
+            if (tamponListe == null) {
+                tamponListe = ByteBuffer.allocate(TAILLE_TAMPON_LISTE);
             }
+            tamponListe.clear();
+            encodeurListe.reset();
+
+            // Seule une liste envoyée en entier est mise en cache, quelle que soit l'erreur
+            boolean complete = false;
+            try (DirectoryStream<Path> entrees = Files.newDirectoryStream(repertoire)) {
+                for (Path chemin : entrees) {
+                    formaterEntreeListe(chemin);
+
+                    CharBuffer caracteres = CharBuffer.wrap(ligneListe);
+                    while (encodeurListe.encode(caracteres, tamponListe, false).isOverflow()) {
+                        copie = copierTamponListe(copie);
+                        ecrireTampon(sortie, tamponListe);
+                    }
+                }
 
-            ecrivainDonnees.close();
-            socketDonnees.close();
+                copie = copierTamponListe(copie);
+                ecrireTampon(sortie, tamponListe);
+                if (blocs != null) {
+                    blocs.terminer();
+                }
+                if (compression != null) {
+                    compression.terminer();
+                }
+                complete = true;
+            } finally {
+                if (complete && copie != null) {
+                    cacheListes.stocker(repertoire, version, copie.toByteArray());
+                } else if (version >= 0) {
+                    cacheListes.abandonner(repertoire);
+                }
+            }
+        }
+    }
 
-            envoyerReponse(CODE_226);
-            System.out.println("[SERVEUR] Liste envoyée avec succès");
+    /**
+     * Ajoute le contenu de tamponListe à la copie destinée au cache des listes
+     *
+     * @param copie Copie en cours (null si la liste n'est pas mise en cache)
+     * @return Copie mise à jour, ou null si la liste devient trop grande pour le cache
+     */
+    private ByteArrayOutputStream copierTamponListe(ByteArrayOutputStream copie) {
+        if (copie == null) {
+            return null;
+        }
+        if (copie.size() + tamponListe.position() > CacheListes.TAILLE_MAX_ENTREE) {
+            return null;
+        }
+        copie.write(tamponListe.array(), 0, tamponListe.position());
+        return copie;
+    }
 
+    /**
+     * Formate une entrée de LIST dans ligneListe, au format "%s %10d %s" :
+     * type (DIR / FILE), taille alignée sur 10 caractères, nom
+     *
+     * @param chemin Entrée du répertoire
+     */
+    private void formaterEntreeListe(Path chemin) {
+        boolean estRepertoire = false;
+        long taille = 0;
+        try {
+            BasicFileAttributes attributs = Files.readAttributes(chemin, BasicFileAttributes.class);
+            estRepertoire = attributs.isDirectory();
+            taille = estRepertoire ? 0 : attributs.size();
         } catch (IOException e) {
-            envoyerReponse(CODE_550);
-            System.err.println("[ERREUR] Erreur lors de l'envoi de la liste : " + e.getMessage());
+            // Entrée illisible : listée comme un fichier vide
+        }
+
+        ligneListe.setLength(0);
+        ligneListe.append(estRepertoire ? "DIR " : "FILE").append(' ');
+        for (int chiffres = nombreChiffres(taille); chiffres < 10; chiffres++) {
+            ligneListe.append(' ');
+        }
+        ligneListe.append(taille).append(' ').append(chemin.getFileName()).append(SEPARATEUR_LIGNE);
+    }
+
+    /**
+     * Calcule le nombre de chiffres décimaux d'une taille positive
+     *
+     * @param valeur Valeur positive ou nulle
+     * @return Nombre de chiffres
+     */
+    private static int nombreChiffres(long valeur) {
+        int chiffres = 1;
+        while (valeur >= 10) {
+            valeur /= 10;
+            chiffres++;
+        }
+        return chiffres;
+    }
+
+    /**
+     * Écrit intégralement le contenu d'un tampon sur un canal puis le vide
+     *
+     * @param sortie Canal de destination
+     * @param tampon Tampon en mode écriture
+     * @throws IOException Si erreur d'écriture
+     */
+    private void ecrireTampon(WritableByteChannel sortie, ByteBuffer tampon) throws IOException {
+        tampon.flip();
+        transfertJournalise.ajouterOctets(tampon.remaining());
+        while (tampon.hasRemaining()) {
+            sortie.write(tampon);
         }
+        tampon.clear();
     }
 
     /**
@@ -462,7 +953,7 @@ public class ServeurFTP {
             // Vérifier que le chemin est dans la racine utilisateur (Exercice 4)
             if (!nouveauChemin.startsWith(repertoireRacineUtilisateur)) {
                 envoyerReponse(CODE_550);
-                System.out.println("[SERVEUR] Accès refusé hors de la racine utilisateur");
+                JournalFTP.info("Accès refusé hors de la racine utilisateur");
                 return;
             }
 
@@ -470,25 +961,30 @@ public class ServeurFTP {
             if (Files.isDirectory(nouveauChemin)) {
                 repertoireCourant = nouveauChemin;
                 envoyerReponse(CODE_250);
-                System.out.println("[SERVEUR] Répertoire changé : " + repertoireCourant);
+                JournalFTP.info("Répertoire changé : ", repertoireCourant);
             } else {
                 envoyerReponse(CODE_550);
-                System.out.println("[SERVEUR] Répertoire non trouvé : " + dossier);
+                JournalFTP.info("Répertoire non trouvé : ", dossier);
             }
 
         } catch (Exception e) {
             envoyerReponse(CODE_550);
-            System.err.println("[ERREUR] Erreur lors du changement de répertoire : " + e.getMessage());
+            JournalFTP.erreur("Erreur lors du changement de répertoire : ", e.getMessage());
         }
     }
 
     /**
      * Gère la commande RETR (Exercice 3)
-     * Télécharge un fichier vers le client
+     * Télécharge un fichier vers le client, à partir de la position donnée par REST
+     * s'il y en a une. La réponse 213 annonce le nombre d'octets qui vont être envoyés.
      *
      * @param nomFichier Nom du fichier à télécharger
      */
     private void gererCommandeRetr(String nomFichier) {
+        // La position de reprise ne vaut que pour le RETR qui suit REST
+        long position = positionReprise;
+        positionReprise = 0;
+
         if (!estAuthentifie) {
             envoyerReponse(CODE_530);
             return;
@@ -500,161 +996,1136 @@ public class ServeurFTP {
         }
 
         try {
-            Path cheminFichier = repertoireCourant.resolve(nomFichier).normalize().toAbsolutePath();
-
-            // Vérifier que le fichier est dans la racine utilisateur (Exercice 4)
-            if (!cheminFichier.startsWith(repertoireRacineUtilisateur)) {
-                envoyerReponse(CODE_550);
-                System.out.println("[SERVEUR] Accès refusé hors de la racine utilisateur");
-                return;
-            }
-
-            // Vérifier que le fichier existe et n'est pas un répertoire
-            if (!Files.exists(cheminFichier) || Files.isDirectory(cheminFichier)) {
-                envoyerReponse(CODE_550);
-                System.out.println("[SERVEUR] Fichier non trouvé : " + nomFichier);
+            Path cheminFichier = resoudreFichier(nomFichier);
+            if (cheminFichier == null) {
                 return;
             }
 
             long tailleFichier = Files.size(cheminFichier);
-
-            // Envoyer la taille du fichier
-            envoyerReponse(CODE_213 + " " + tailleFichier);
-
-            // Établir la connexion de données
-            envoyerReponse(CODE_150);
-
-            if (!etablirConnexionDonnees()) {
-                envoyerReponse("425 Impossible d'ouvrir la connexion de données");
+            if (position > tailleFichier) {
+                envoyerReponse(CODE_554);
+                JournalFTP.info("Position de reprise au-delà de la fin du fichier : ", nomFichier);
                 return;
             }
 
-            // Transférer le fichier via la connexion de données
-            try (InputStream fichierEntree = Files.newInputStream(cheminFichier);
-                 OutputStream sortie = socketDonnees.getOutputStream()) {
-
-                byte[] tampon = new byte[4096];
-                int octetsLus;
-
-                while ((octetsLus = fichierEntree.read(tampon)) != -1) {
-                    sortie.write(tampon, 0, octetsLus);
-                }
-
-                sortie.flush();
-            }
+            // Envoyer le nombre d'octets à transférer
+            envoyerReponse(CODE_213 + " " + (tailleFichier - position));
 
-            socketDonnees.close();
+            // Établir la connexion de données et transférer le fichier en arrière-plan
+            envoyerReponseOuverture();
 
-            envoyerReponse(CODE_226);
-            System.out.println("[SERVEUR] Fichier envoyé avec succès : " + nomFichier + " (" + tailleFichier + " octets)");
+            lancerTransfert("RETR", cheminFichier, () -> transfererFichier(cheminFichier, position, tailleFichier),
+                () -> "Fichier envoyé avec succès : " + nomFichier + " (" + (tailleFichier - position)
+                    + " octets" + (position > 0 ? " depuis la position " + position : "") + ")");
 
         } catch (IOException e) {
             envoyerReponse(CODE_550);
-            System.err.println("[ERREUR] Erreur lors du transfert du fichier : " + e.getMessage());
+            JournalFTP.erreur("Erreur lors du transfert du fichier : ", e.getMessage());
         }
     }
 
     /**
-     * Gère la commande QUIT pour fermer la connexion
-     */
-    private void gererCommandeQuit() {
-        envoyerReponse(CODE_221);
-        String infoClient = utilisateurCourant != null ? utilisateurCourant : socketControle.getInetAddress().toString();
-        System.out.println("[SERVEUR] Déconnexion du client : " + infoClient);
-    }
-
-    // ==================== MÉTHODES UTILITAIRES ====================
-
-    /**
-     * Crée un socket serveur pour le mode passif sur un port disponible
+     * Gère la commande REST : position de départ du prochain RETR ou STOR
+     * Permet la reprise d'un téléchargement ou d'un téléversement interrompu, et le
+     * téléchargement d'un fichier par segments sur plusieurs connexions
      *
-     * @return ServerSocket créé, ou null si aucun port disponible
+     * @param argument Position en octets
      */
-    private ServerSocket creerSocketServeurPassif() {
-        for (int port = PORT_PASSIF_MIN; port <= PORT_PASSIF_MAX; port++) {
-            try {
-                return new ServerSocket(port);
-            } catch (IOException e) {
-                // Port occupé, essayer le suivant
+    private void gererCommandeRest(String argument) {
+        if (!estAuthentifie) {
+            envoyerReponse(CODE_530);
+            return;
+        }
+
+        try {
+            long position = Long.parseLong(argument.trim());
+            if (position < 0) {
+                envoyerReponse(CODE_501);
+                return;
             }
+            positionReprise = position;
+            envoyerReponse(CODE_350);
+        } catch (NumberFormatException e) {
+            envoyerReponse(CODE_501);
         }
-        return null;
     }
 
     /**
-     * Établit la connexion de données selon le mode configuré (actif ou passif)
+     * Gère la commande SIZE : taille d'un fichier, sans le transférer
      *
-     * @return true si la connexion est établie, false sinon
+     * @param nomFichier Nom du fichier
      */
-    private boolean etablirConnexionDonnees() {
-        try {
-            if ("actif".equals(modeTransfert)) {
-                // Mode actif : le serveur se connecte au client
-                socketDonnees = new Socket(adresseClientActif, portClientActif);
-                System.out.println("[SERVEUR] Connexion de données établie en mode actif");
-                return true;
+    private void gererCommandeSize(String nomFichier) {
+        if (!estAuthentifie) {
+            envoyerReponse(CODE_530);
+            return;
+        }
 
-            } else if ("passif".equals(modeTransfert)) {
-                // Mode passif : le serveur attend la connexion du client
-                if (socketServeurPassif != null) {
-                    socketDonnees = socketServeurPassif.accept();
-                    System.out.println("[SERVEUR] Connexion de données établie en mode passif");
-                    return true;
-                }
+        if (nomFichier.isEmpty()) {
+            envoyerReponse(CODE_501);
+            return;
+        }
+
+        try {
+            Path cheminFichier = resoudreFichier(nomFichier);
+            if (cheminFichier != null) {
+                envoyerReponse(CODE_213 + " " + Files.size(cheminFichier));
             }
         } catch (IOException e) {
-            System.err.println("[ERREUR] Erreur lors de l'établissement de la connexion de données : " + e.getMessage());
+            envoyerReponse(CODE_550);
+            JournalFTP.erreur("Erreur lors de la lecture de la taille : ", e.getMessage());
         }
-        return false;
     }
 
     /**
-     * Obtient la taille d'un fichier (0 pour les répertoires)
+     * Gère les commandes STOR et APPE : téléversement d'un fichier
+     * STOR écrit dans un fichier temporaire du répertoire cible, renommé atomiquement
+     * sur le fichier final une fois les données reçues : un téléversement interrompu
+     * ne laisse jamais de fichier partiel visible. Après REST, STOR écrit dans le fichier
+     * existant à partir de la position donnée (reprise) ; APPE écrit à la suite du
+     * fichier existant. En cas d'échec, ces deux dernières remettent le fichier à sa
+     * taille d'origine.
      *
-     * @param chemin Chemin du fichier
-     * @return Taille en octets
+     * @param nomFichier Nom du fichier à écrire, relatif au répertoire courant
+     * @param ajout true pour APPE, false pour STOR
      */
-    private long obtenirTailleFichier(Path chemin) {
+    private void gererCommandeStor(String nomFichier, boolean ajout) {
+        // REST et ALLO ne valent que pour la commande qui les suit
+        long position = positionReprise;
+        long allocation = tailleAnnoncee;
+        positionReprise = 0;
+        tailleAnnoncee = 0;
+        String commande = ajout ? "APPE" : "STOR";
+
+        if (!estAuthentifie) {
+            envoyerReponse(CODE_530);
+            return;
+        }
+
+        if (!peutEcrire()) {
+            return;
+        }
+
+        if (nomFichier.isEmpty()) {
+            envoyerReponse(CODE_501);
+            return;
+        }
+
         try {
-            return Files.isDirectory(chemin) ? 0 : Files.size(chemin);
+            Path cheminFichier = resoudreDestination(nomFichier);
+            if (cheminFichier == null) {
+                return;
+            }
+
+            // Position d'écriture : -1 pour un nouveau fichier (temporaire puis renommage)
+            long debut = -1;
+            if (ajout) {
+                debut = Files.exists(cheminFichier) ? Files.size(cheminFichier) : 0;
+            } else if (position > 0) {
+                long tailleFichier = Files.exists(cheminFichier) ? Files.size(cheminFichier) : 0;
+                if (position > tailleFichier) {
+                    envoyerReponse(CODE_554);
+                    JournalFTP.info("Position de reprise au-delà de la fin du fichier : ", nomFichier);
+                    return;
+                }
+                debut = position;
+            }
+
+            envoyerReponseOuverture();
+
+            long positionEcriture = debut;
+            lancerTransfert(commande, cheminFichier,
+                () -> recevoirFichier(cheminFichier, positionEcriture, allocation),
+                () -> "Fichier reçu avec succès : " + nomFichier
+                    + (positionEcriture > 0 ? " (à partir de la position " + positionEcriture + ")" : ""));
+
         } catch (IOException e) {
-            return 0;
+            envoyerReponse(CODE_550);
+            JournalFTP.erreur("Erreur lors du téléversement du fichier : ", e.getMessage());
         }
     }
 
     /**
-     * Envoie une réponse au client via la socket de contrôle
+     * Gère la commande ALLO : taille annoncée du prochain téléversement
+     * Le fichier temporaire d'un STOR est alors étendu à cette taille avant de recevoir
+     * les données, ce qui évite de l'agrandir à chaque écriture.
      *
-     * @param reponse Message de réponse à envoyer
+     * @param argument Taille en octets (une éventuelle taille d'enregistrement « R n » est ignorée)
      */
-    private void envoyerReponse(String reponse) {
-        ecrivain.println(reponse);
-        System.out.println("[SERVEUR] Réponse envoyée : " + reponse);
-    }
-
-    /**
-     * Ferme toutes les connexions et libère les ressources
+    private void gererCommandeAllo(String argument) {
+        if (!estAuthentifie) {
+            envoyerReponse(CODE_530);
+            return;
+        }
+
+        if (!peutEcrire()) {
+            return;
+        }
+
+        String[] champs = argument.trim().split("\\s+");
+        try {
+            long taille = Long.parseLong(champs[0]);
+            if (taille < 0) {
+                envoyerReponse(CODE_501);
+                return;
+            }
+            tailleAnnoncee = taille;
+            envoyerReponse(CODE_200);
+        } catch (NumberFormatException e) {
+            envoyerReponse(CODE_501);
+        }
+    }
+
+    /**
+     * Vérifie que l'utilisateur courant a le droit d'écrire (Exercice 4)
+     * Envoie 550 sinon : anonymous, notamment, reste en lecture seule.
+     *
+     * @return true si l'écriture est autorisée
+     */
+    private boolean peutEcrire() {
+        if (UTILISATEURS_ECRITURE.contains(utilisateurCourant)) {
+            return true;
+        }
+        envoyerReponse(CODE_550_ECRITURE);
+        JournalFTP.info("Écriture refusée pour l'utilisateur : ", utilisateurCourant);
+        return false;
+    }
+
+    /**
+     * Résout le chemin d'un fichier à écrire
+     * Envoie 550 si le chemin est hors de la racine utilisateur, désigne un répertoire
+     * ou si son répertoire parent n'existe pas
+     *
+     * @param nomFichier Nom du fichier, relatif au répertoire courant
+     * @return Chemin du fichier, ou null si la réponse 550 a été envoyée
+     */
+    private Path resoudreDestination(String nomFichier) {
+        Path cheminFichier = repertoireCourant.resolve(nomFichier).normalize().toAbsolutePath();
+
+        // Les téléversements restent dans la racine utilisateur (Exercice 4)
+        if (!cheminFichier.startsWith(repertoireRacineUtilisateur) || cheminFichier.equals(repertoireRacineUtilisateur)) {
+            envoyerReponse(CODE_550);
+            JournalFTP.info("Écriture refusée hors de la racine utilisateur");
+            return null;
+        }
+
+        if (Files.isDirectory(cheminFichier) || !Files.isDirectory(cheminFichier.getParent())) {
+            envoyerReponse(CODE_550);
+            JournalFTP.info("Destination invalide : ", nomFichier);
+            return null;
+        }
+        return cheminFichier;
+    }
+
+    /**
+     * Résout le chemin d'un fichier demandé par le client
+     * Envoie 550 si le fichier est hors de la racine utilisateur, absent ou est un répertoire
+     *
+     * @param nomFichier Nom du fichier, relatif au répertoire courant
+     * @return Chemin du fichier, ou null si la réponse 550 a été envoyée
+     */
+    private Path resoudreFichier(String nomFichier) {
+        Path cheminFichier = repertoireCourant.resolve(nomFichier).normalize().toAbsolutePath();
+
+        // Vérifier que le fichier est dans la racine utilisateur (Exercice 4)
+        if (!cheminFichier.startsWith(repertoireRacineUtilisateur)) {
+            envoyerReponse(CODE_550);
+            JournalFTP.info("Accès refusé hors de la racine utilisateur");
+            return null;
+        }
+
+        // Vérifier que le fichier existe et n'est pas un répertoire
+        if (!Files.exists(cheminFichier) || Files.isDirectory(cheminFichier)) {
+            envoyerReponse(CODE_550);
+            JournalFTP.info("Fichier non trouvé : ", nomFichier);
+            return null;
+        }
+        return cheminFichier;
+    }
+
+    /**
+     * Gère la commande MRET : téléchargement en lot
+     * L'argument désigne un répertoire (envoyé récursivement) ou un motif glob
+     * (ex. documents/*.txt, ** pour descendre dans les sous-répertoires) ;
+     * l'option -z compresse l'archive. Les fichiers sont envoyés sur une seule
+     * connexion de données au format ArchiveLot.
+     *
+     * @param argument [-z] répertoire ou motif
      */
-    private void fermerConnexions() {
+    private void gererCommandeMret(String argument) {
+        if (!estAuthentifie) {
+            envoyerReponse(CODE_530);
+            return;
+        }
+
+        String cible = argument.trim();
+        boolean compresse = false;
+        if (cible.startsWith(OPTION_MRET_COMPRESSION + " ") || cible.equals(OPTION_MRET_COMPRESSION)) {
+            compresse = true;
+            cible = cible.substring(OPTION_MRET_COMPRESSION.length()).trim();
+        }
+        if (cible.isEmpty()) {
+            envoyerReponse(CODE_501);
+            return;
+        }
+
         try {
-            if (socketDonnees != null && !socketDonnees.isClosed()) {
-                socketDonnees.close();
+            // Partie fixe du chemin (avant le premier élément contenant un caractère de motif)
+            String[] elements = cible.replace('\\', '/').split("/");
+            int fixes = 0;
+            while (fixes < elements.length && !contientMotif(elements[fixes])) {
+                fixes++;
+            }
+            Path base = repertoireCourant;
+            for (int i = 0; i < fixes; i++) {
+                base = base.resolve(elements[i]);
+            }
+            base = base.normalize().toAbsolutePath();
+
+            // Vérifier que la base est dans la racine utilisateur (Exercice 4)
+            if (!base.startsWith(repertoireRacineUtilisateur) || !Files.isDirectory(base)) {
+                envoyerReponse(CODE_550);
+                JournalFTP.info("Lot refusé ou introuvable : ", cible);
+                return;
+            }
+
+            // Répertoire : noms relatifs à son parent (le répertoire est recréé chez le client)
+            PathMatcher motif = null;
+            Path origineNoms = base;
+            if (fixes < elements.length) {
+                motif = FileSystems.getDefault().getPathMatcher(
+                    "glob:" + String.join("/", Arrays.copyOfRange(elements, fixes, elements.length)));
+            } else if (!base.equals(repertoireRacineUtilisateur)) {
+                origineNoms = base.getParent();
+            }
+
+            List<Path> fichiers = listerFichiersLot(base, motif);
+            if (fichiers.isEmpty()) {
+                envoyerReponse(CODE_550);
+                JournalFTP.info("Aucun fichier pour le lot : ", cible);
+                return;
+            }
+
+            envoyerReponseOuverture();
+
+            Path repertoireBase = base;
+            Path origine = origineNoms;
+            boolean compression = compresse;
+            lancerTransfert("MRET", repertoireBase, () -> envoyerArchive(fichiers, origine, compression),
+                () -> "Lot envoyé avec succès : " + fichiers.size() + " fichier(s) de " + repertoireBase);
+
+        } catch (IOException | IllegalArgumentException e) {
+            envoyerReponse(CODE_550);
+            JournalFTP.erreur("Erreur lors de la préparation du lot : ", e.getMessage());
+        }
+    }
+
+    /**
+     * Liste les fichiers ordinaires d'un lot, dans un ordre stable
+     * Les liens symboliques ne sont pas suivis (ils pourraient sortir de la racine utilisateur).
+     *
+     * @param base Répertoire parcouru récursivement
+     * @param motif Motif appliqué au chemin relatif à base (null : tous les fichiers)
+     * @return Fichiers du lot
+     * @throws IOException Si erreur de parcours
+     */
+    private static List<Path> listerFichiersLot(Path base, PathMatcher motif) throws IOException {
+        List<Path> fichiers = new ArrayList<>();
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path fichier, BasicFileAttributes attributs) {
+                if (attributs.isRegularFile() && (motif == null || motif.matches(base.relativize(fichier)))) {
+                    fichiers.add(fichier);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path fichier, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(fichiers);
+        return fichiers;
+    }
+
+    /**
+     * Indique si un élément de chemin contient un caractère de motif glob
+     *
+     * @param element Élément de chemin
+     * @return true si l'élément est un motif
+     */
+    private static boolean contientMotif(String element) {
+        for (int i = 0; i < element.length(); i++) {
+            if ("*?[{".indexOf(element.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lance un transfert de données en arrière-plan : établissement de la connexion
+     * de données, envoi, puis réponse 226 (ou 425/426) envoyée à la fin du transfert.
+     * La connexion de contrôle reste disponible pendant ce temps (ABOR, NOOP, STAT).
+     *
+     * @param commande Commande à l'origine du transfert (pour le journal des transferts)
+     * @param cible Répertoire ou fichier transféré (pour le journal des transferts)
+     * @param transfert Envoi des données sur la connexion de données
+     * @param messageSucces Message de journal en cas de succès
+     */
+    private void lancerTransfert(String commande, Path cible, TransfertDonnees transfert, Supplier<String> messageSucces) {
+        // Le client attend 150 pour ouvrir (ou accepter) la connexion de données
+        viderReponses();
+        transfertAbandonne = false;
+        transfertJournalise = new JournalFTP.Transfert(numeroSession,
+            socketControle.getInetAddress().getHostAddress(), utilisateurCourant,
+            commande, "/" + repertoireRacineUtilisateur.relativize(cible));
+        transfertEnCours = CompletableFuture.runAsync(() -> executerTransfert(transfert), executeurTransferts)
+            .whenComplete((resultat, erreur) -> terminerTransfert(erreur, messageSucces));
+    }
+
+    /**
+     * Exécute un transfert dans le thread de transfert
+     *
+     * @param transfert Envoi des données sur la connexion de données
+     */
+    private void executerTransfert(TransfertDonnees transfert) {
+        synchronized (verrouTransfert) {
+            threadTransfert = Thread.currentThread();
+        }
+        boolean reussi = false;
+        try {
+            if (!etablirConnexionDonnees()) {
+                throw new CompletionException(new ConnectException("connexion de données impossible"));
+            }
+            transfert.executer();
+            reussi = true;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            if (reglageDonnees != null) {
+                transfertJournalise.decrireReglage(reglageDonnees.resume());
+            }
+            // En mode bloc, la connexion est conservée pour le transfert suivant
+            if (!modeBloc || !reussi) {
+                fermerConnexionDonnees();
+            }
+            synchronized (verrouTransfert) {
+                threadTransfert = null;
+                Thread.interrupted(); // Ne pas laisser une interruption d'ABOR au thread du pool
+            }
+        }
+    }
+
+    /**
+     * Envoie la réponse finale d'un transfert
+     *
+     * @param erreur Erreur survenue (null si succès)
+     * @param messageSucces Message de journal en cas de succès
+     */
+    private void terminerTransfert(Throwable erreur, Supplier<String> messageSucces) {
+        if (erreur == null) {
+            // Réponse hors commande : envoyée immédiatement
+            envoyerReponse(CODE_226);
+            viderReponsesSansAttendre();
+            journaliserTransfert(226);
+            if (JournalFTP.actif(JournalFTP.Niveau.INFO)) {
+                JournalFTP.info(messageSucces.get());
+            }
+            return;
+        }
+
+        Throwable cause = erreur instanceof CompletionException && erreur.getCause() != null ? erreur.getCause() : erreur;
+        if (cause instanceof ConnectException && !transfertAbandonne) {
+            envoyerReponse(CODE_425);
+            journaliserTransfert(425);
+        } else {
+            envoyerReponse(CODE_426);
+            journaliserTransfert(426);
+        }
+        viderReponsesSansAttendre();
+        JournalFTP.erreur("Erreur lors du transfert de données : ", cause.getMessage());
+    }
+
+    /**
+     * Complète et journalise l'enregistrement du transfert qui se termine
+     *
+     * @param code Code de la réponse finale
+     */
+    private void journaliserTransfert(int code) {
+        JournalFTP.Transfert transfert = transfertJournalise;
+        if (transfert != null) {
+            transfert.terminer(code);
+            JournalFTP.transfert(transfert);
+        }
+    }
+
+    /**
+     * Attend la fin du transfert en cours, s'il y en a un
+     */
+    private void attendreTransfert() {
+        CompletableFuture<Void> transfert = transfertEnCours;
+        if (transfert == null) {
+            return;
+        }
+        viderReponses();
+        try {
+            transfert.join();
+        } catch (CompletionException | CancellationException e) {
+            // Déjà signalé au client par terminerTransfert
+        }
+        transfertEnCours = null;
+    }
+
+    /**
+     * Ferme la connexion de données si elle est ouverte
+     */
+    private void fermerConnexionDonnees() {
+        Socket socket = socketDonnees;
+        if (socket != null && !socket.isClosed()) {
+            fermerSilencieusement(socket);
+        }
+    }
+
+    /**
+     * Transfère le contenu d'un fichier sur la connexion de données, à partir d'une position
+     * Les fichiers présents dans le cache des fichiers populaires sont envoyés depuis la mémoire.
+     * En mode bloc, le fichier est découpé en blocs et la connexion reste ouverte.
+     * En mode compressé, la variante précompressée du fichier est envoyée par transferTo
+     * si elle est à jour ; sinon le fichier est lu par tampons et compressé au fil de l'eau.
+     * Sinon, si la socket de données est adossée à un SocketChannel, le fichier est envoyé
+     * avec FileChannel.transferTo (sendfile : du cache de pages directement vers la socket,
+     * sans copie en espace utilisateur). Sinon, repli sur des lectures positionnelles
+     * copiées vers le flux de la socket. Dans ces deux derniers cas, la taille des
+     * morceaux envoyés suit le réglage adaptatif de la connexion.
+     *
+     * @param cheminFichier Chemin du fichier à envoyer
+     * @param debut Position du premier octet à envoyer (REST)
+     * @param tailleFichier Taille du fichier en octets
+     * @throws IOException Si erreur de lecture ou d'écriture
+     */
+    private void transfererFichier(Path cheminFichier, long debut, long tailleFichier) throws IOException {
+        SocketChannel canalDonnees = socketDonnees.getChannel();
+        WritableByteChannel canal = canalDonnees != null
+            ? canalDonnees
+            : Channels.newChannel(socketDonnees.getOutputStream());
+
+        // Mode compressé : variante précompressée envoyée telle quelle, sans recompresser
+        if (modeCompresse && debut == 0 && cachePrecompresse != null) {
+            try (FileChannel variante = cachePrecompresse.ouvrir(cheminFichier, tailleFichier)) {
+                if (variante != null) {
+                    long position = CachePrecompresse.TAILLE_EN_TETE;
+                    long fin = variante.size();
+                    while (position < fin) {
+                        long octetsEnvoyes = variante.transferTo(position, fin - position, canal);
+                        if (octetsEnvoyes <= 0) {
+                            throw new EOFException("variante précompressée tronquée");
+                        }
+                        position += octetsEnvoyes;
+                    }
+                    // Octets réellement envoyés : la variante compressée, sans son en-tête
+                    transfertJournalise.ajouterOctets(fin - CachePrecompresse.TAILLE_EN_TETE);
+                    return;
+                }
+            }
+        }
+
+        ModeBloc.Sortie blocs = modeBloc ? new ModeBloc.Sortie(canal) : null;
+        try (ModeCompresse.Sortie compression = modeCompresse ? new ModeCompresse.Sortie(canal) : null) {
+            // Fichier populaire : envoyé depuis le cache hors tas, sans relire le disque, si son
+            // contenu a la taille annoncée par 213 (sinon, le disque signale la troncature par 426)
+            ByteBuffer contenuEnCache = cacheFichiers != null ? cacheFichiers.obtenir(cheminFichier) : null;
+            if (contenuEnCache != null && contenuEnCache.remaining() == tailleFichier && debut <= tailleFichier) {
+                contenuEnCache.position(contenuEnCache.position() + (int) debut);
+                WritableByteChannel sortie = blocs != null ? blocs : compression != null ? compression : canal;
+                transfertJournalise.ajouterOctets(contenuEnCache.remaining());
+                while (contenuEnCache.hasRemaining()) {
+                    sortie.write(contenuEnCache);
+                }
+                if (blocs != null) {
+                    blocs.terminer();
+                }
+                if (compression != null) {
+                    compression.terminer();
+                }
+                return;
+            }
+
+            try (FileChannel canalFichier = FileChannel.open(cheminFichier, StandardOpenOption.READ)) {
+                if (blocs != null && transfertZeroCopie) {
+                    // Mode bloc : en-tête de chaque bloc, puis ses données sans copie
+                    transfertJournalise.ajouterOctets(blocs.transfererDepuis(canalFichier, debut, tailleFichier - debut));
+                    return;
+                }
+
+                ReglageTransfert reglage = reglageDonnees;
+                reglage.debuter(true);
+
+                if (blocs == null && compression == null && transfertZeroCopie && canalDonnees != null) {
+                    long position = debut;
+
+                    while (position < tailleFichier) {
+                        long octetsEnvoyes = canalFichier.transferTo(position,
+                            Math.min(tailleFichier - position, reglage.tailleMorceau()), canalDonnees);
+                        if (octetsEnvoyes <= 0) {
+                            // Fichier tronqué : le client attend la taille annoncée par 213
+                            throw new EOFException("fichier tronqué pendant le transfert");
+                        }
+                        position += octetsEnvoyes;
+                        transfertJournalise.ajouterOctets(octetsEnvoyes);
+                        reglage.enregistrer(octetsEnvoyes);
+                    }
+                    return;
+                }
+
+                // Copie par un tampon du pool, avec des lectures positionnelles (sans déplacer de curseur partagé)
+                WritableByteChannel sortie = blocs != null ? blocs : compression != null ? compression : canal;
+                ByteBuffer tampon = PoolTampons.acquerir(reglage.tailleMorceau());
+                try {
+                    long position = debut;
+
+                    while (position < tailleFichier) {
+                        // Pas au-delà de la taille annoncée par 213, même si le fichier a grandi depuis
+                        tampon.limit((int) Math.min(tampon.capacity(), tailleFichier - position));
+                        int octetsLus = canalFichier.read(tampon, position);
+                        if (octetsLus < 0) {
+                            throw new EOFException("fichier tronqué pendant le transfert");
+                        }
+                        tampon.flip();
+                        transfertJournalise.ajouterOctets(octetsLus);
+                        while (tampon.hasRemaining()) {
+                            sortie.write(tampon);
+                        }
+                        position += octetsLus;
+                        reglage.enregistrer(octetsLus);
+                        tampon = ajusterTampon(tampon, reglage);
+                    }
+                } finally {
+                    PoolTampons.liberer(tampon);
+                }
+                if (blocs != null) {
+                    blocs.terminer();
+                }
+                if (compression != null) {
+                    compression.terminer();
+                }
+            }
+        }
+    }
+
+    /**
+     * Envoie les fichiers d'un lot sous forme d'archive sur la connexion de données
+     * Sans compression, chaque fichier passe par FileChannel.transferTo (sendfile).
+     *
+     * @param fichiers Fichiers du lot
+     * @param origineNoms Répertoire à partir duquel les noms de l'archive sont calculés
+     * @param compresse Compresser l'archive
+     * @throws IOException Si erreur de lecture ou d'écriture
+     */
+    private void envoyerArchive(List<Path> fichiers, Path origineNoms, boolean compresse) throws IOException {
+        WritableByteChannel canal = socketDonnees.getChannel() != null
+            ? socketDonnees.getChannel()
+            : Channels.newChannel(socketDonnees.getOutputStream());
+        ModeBloc.Sortie blocs = modeBloc ? new ModeBloc.Sortie(canal) : null;
+        try (ModeCompresse.Sortie compression = modeCompresse ? new ModeCompresse.Sortie(canal) : null) {
+            // En mode compressé, l'archive n'est pas compressée une seconde fois
+            WritableByteChannel sortie = blocs != null ? blocs : compression != null ? compression : canal;
+            try (ArchiveLot.Ecrivain archive = new ArchiveLot.Ecrivain(sortie,
+                    compresse && compression == null, transfertZeroCopie)) {
+                for (Path fichier : fichiers) {
+                    long taille;
+                    try {
+                        taille = Files.size(fichier);
+                    } catch (NoSuchFileException e) {
+                        continue; // Supprimé depuis le parcours
+                    }
+                    String nom = origineNoms.relativize(fichier).toString().replace(File.separatorChar, '/');
+                    transfertJournalise.ajouterOctets(archive.ajouterFichier(nom, fichier, taille));
+                }
+                archive.terminer();
+            }
+            if (blocs != null) {
+                blocs.terminer();
+            }
+            if (compression != null) {
+                compression.terminer();
+            }
+        }
+    }
+
+    /**
+     * Reçoit un fichier téléversé sur la connexion de données
+     * Les données sont lues dans un tampon direct du pool (directement depuis le
+     * SocketChannel en mode flux, sans passer par un tableau du tas) puis écrites par
+     * écritures positionnelles ; la taille du tampon suit le réglage adaptatif de la
+     * connexion. Si la taille a été annoncée par ALLO, le fichier temporaire d'un
+     * nouveau fichier est étendu d'avance, puis ramené à la taille reçue ; un fichier
+     * écrit en place (APPE, reprise) ne l'est jamais, pour qu'un arrêt brutal n'y laisse
+     * pas de zéros. Selon la politique de
+     * synchronisation, les données sont forcées sur disque pendant la réception et/ou
+     * avant le renommage.
+     *
+     * @param cheminFichier Fichier final
+     * @param debut Position d'écriture dans le fichier existant, ou -1 pour un nouveau fichier
+     * @param allocation Taille annoncée par ALLO (0 si inconnue)
+     * @throws IOException Si erreur de lecture ou d'écriture
+     */
+    private void recevoirFichier(Path cheminFichier, long debut, long allocation) throws IOException {
+        boolean nouveau = debut < 0;
+        // Fichier temporaire propre à la session, dans le même répertoire (renommage atomique)
+        Path destination = nouveau
+            ? cheminFichier.resolveSibling("." + cheminFichier.getFileName() + "." + numeroSession + ".part")
+            : cheminFichier;
+        long position = nouveau ? 0 : debut;
+        long tailleOrigine = nouveau ? 0 : Files.exists(cheminFichier) ? Files.size(cheminFichier) : 0;
+
+        ReadableByteChannel source = ouvrirEntreeDonnees();
+        ReglageTransfert reglage = reglageDonnees;
+        reglage.debuter(false);
+        ByteBuffer tampon = PoolTampons.acquerir(reglage.tailleMorceau());
+        boolean reussi = false;
+        try (RandomAccessFile fichier = new RandomAccessFile(destination.toFile(), "rw")) {
+            FileChannel canalFichier = fichier.getChannel();
+            if (nouveau && allocation > 0) {
+                fichier.setLength(allocation);
+            }
+
+            long nonSynchronises = 0;
+            int octetsLus;
+            while ((octetsLus = source.read(tampon)) != -1) {
+                tampon.flip();
+                while (tampon.hasRemaining()) {
+                    position += canalFichier.write(tampon, position);
+                }
+                transfertJournalise.ajouterOctets(octetsLus);
+                reglage.enregistrer(octetsLus);
+                tampon = ajusterTampon(tampon, reglage);
+
+                nonSynchronises += octetsLus;
+                if (synchronisation == Synchronisation.CONTINUE && nonSynchronises >= OCTETS_ENTRE_SYNCHRONISATIONS) {
+                    canalFichier.force(false);
+                    nonSynchronises = 0;
+                }
+            }
+
+            // Retirer l'espace annoncé mais non reçu (une reprise ne raccourcit pas le fichier)
+            long tailleFinale = nouveau ? position : Math.max(position, tailleOrigine);
+            if (canalFichier.size() > tailleFinale) {
+                canalFichier.truncate(tailleFinale);
+            }
+            if (synchronisation != Synchronisation.AUCUNE) {
+                canalFichier.force(true);
+            }
+            reussi = true;
+        } finally {
+            PoolTampons.liberer(tampon);
+            if (modeCompresse) {
+                fermerSilencieusement(source); // Libère le décompresseur
+            }
+            if (!reussi) {
+                annulerReception(destination, nouveau, tailleOrigine);
+            }
+        }
+
+        if (nouveau) {
+            try {
+                Files.move(destination, cheminFichier, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.deleteIfExists(destination);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Remplace le tampon d'un transfert si le réglage a changé la taille des morceaux
+     * Le nouveau tampon est obtenu avant de rendre l'ancien : si acquerir échoue,
+     * l'appelant détient toujours l'ancien et le rend une seule fois.
+     *
+     * @param tampon Tampon courant (obtenu du pool)
+     * @param reglage Réglage de la connexion de données
+     * @return Tampon vide de la taille des morceaux (le même ou un nouveau)
+     */
+    private static ByteBuffer ajusterTampon(ByteBuffer tampon, ReglageTransfert reglage) {
+        if (tampon.capacity() == reglage.tailleMorceau()) {
+            tampon.clear();
+            return tampon;
+        }
+        ByteBuffer nouveau = PoolTampons.acquerir(reglage.tailleMorceau());
+        PoolTampons.liberer(tampon);
+        return nouveau;
+    }
+
+    /**
+     * Ouvre la lecture des données reçues sur la connexion de données, selon le mode
+     *
+     * @return Canal de lecture (décodage des blocs ou décompression si besoin)
+     * @throws IOException Si la connexion de données est fermée
+     */
+    private ReadableByteChannel ouvrirEntreeDonnees() throws IOException {
+        if (modeBloc) {
+            return Channels.newChannel(new ModeBloc.Entree(socketDonnees.getInputStream()));
+        }
+        if (modeCompresse) {
+            return Channels.newChannel(new ModeCompresse.Entree(socketDonnees.getInputStream()));
+        }
+        SocketChannel canalDonnees = socketDonnees.getChannel();
+        return canalDonnees != null ? canalDonnees : Channels.newChannel(socketDonnees.getInputStream());
+    }
+
+    /**
+     * Défait un téléversement qui a échoué : le fichier temporaire est supprimé,
+     * un fichier existant (APPE, reprise) est ramené à sa taille d'origine
+     * Un RandomAccessFile est utilisé car un canal NIO ne s'ouvre plus dans un
+     * thread interrompu par ABOR.
+     *
+     * @param destination Fichier écrit
+     * @param nouveau true si destination est un fichier temporaire
+     * @param tailleOrigine Taille d'origine du fichier existant
+     */
+    private static void annulerReception(Path destination, boolean nouveau, long tailleOrigine) {
+        try {
+            if (nouveau) {
+                Files.deleteIfExists(destination);
+            } else {
+                try (RandomAccessFile fichier = new RandomAccessFile(destination.toFile(), "rw")) {
+                    if (fichier.length() > tailleOrigine) {
+                        fichier.setLength(tailleOrigine);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            JournalFTP.erreur("Impossible d'annuler le téléversement : ", e.getMessage());
+        }
+    }
+
+    /**
+     * Gère la commande MODE : S (flux, par défaut), B (bloc) ou Z (compressé)
+     * En mode bloc, la fin de chaque fichier est signalée dans les données et la
+     * connexion de données est réutilisée par les transferts suivants.
+     * En mode compressé, les données sont compressées par deflate (voir ModeCompresse).
+     *
+     * @param argument Code du mode
+     */
+    private void gererCommandeMode(String argument) {
+        switch (argument.trim().toUpperCase()) {
+            case "S":
+                modeBloc = false;
+                modeCompresse = false;
+                fermerConnexionDonnees();
+                envoyerReponse(CODE_200_MODE_S);
+                break;
+
+            case "B":
+                modeBloc = true;
+                modeCompresse = false;
+                envoyerReponse(CODE_200_MODE_B);
+                break;
+
+            case "Z":
+                modeBloc = false;
+                modeCompresse = true;
+                fermerConnexionDonnees();
+                envoyerReponse(CODE_200_MODE_Z);
+                break;
+
+            case "":
+                envoyerReponse(CODE_501);
+                break;
+
+            default:
+                envoyerReponse(CODE_504);
+                break;
+        }
+    }
+
+    /**
+     * Envoie la réponse préliminaire d'un transfert : 125 si la connexion de données
+     * conservée en mode bloc est réutilisée, 150 si elle doit être ouverte
+     */
+    private void envoyerReponseOuverture() {
+        Socket socket = socketDonnees;
+        boolean ouverte = modeBloc && socket != null && !socket.isClosed();
+        envoyerReponse(ouverte ? CODE_125 : CODE_150);
+    }
+
+    /**
+     * Gère la commande ABOR : interrompt le transfert en cours
+     * Le transfert interrompu répond 426, puis ABOR répond 226
+     */
+    private void gererCommandeAbor() {
+        CompletableFuture<Void> transfert = transfertEnCours;
+        if (transfert == null || transfert.isDone()) {
+            envoyerReponse(CODE_226_ABOR);
+            return;
+        }
+
+        transfertAbandonne = true;
+        synchronized (verrouTransfert) {
+            if (threadTransfert != null) {
+                // Les canaux NIO se ferment lorsque le thread bloqué dessus est interrompu
+                threadTransfert.interrupt();
             }
-            if (socketServeurPassif != null && !socketServeurPassif.isClosed()) {
-                socketServeurPassif.close();
+        }
+        fermerConnexionDonnees();
+        attendreTransfert();
+
+        envoyerReponse(CODE_226);
+        JournalFTP.info("Transfert interrompu par ABOR");
+    }
+
+    /**
+     * Gère la commande STAT (sans argument) : renvoie les métriques du serveur
+     * sous forme de réponse multi-lignes 211 (réservée aux utilisateurs connectés)
+     */
+    private void gererCommandeStat() {
+        if (!estAuthentifie) {
+            envoyerReponse(CODE_530);
+            return;
+        }
+
+        // Réponse multi-lignes ajoutée d'un bloc : une fin de transfert ne peut pas s'y intercaler
+        StringBuilder reponse = new StringBuilder(CODE_211_DEBUT);
+        for (Map.Entry<String, Long> metrique : MetriquesFTP.instantane().entrySet()) {
+            reponse.append(SEPARATEUR_LIGNE).append(' ').append(metrique.getKey()).append(" = ").append(metrique.getValue());
+        }
+        reponse.append(SEPARATEUR_LIGNE).append(CODE_211);
+        envoyerReponse(reponse.toString());
+    }
+
+    /**
+     * Gère la commande QUIT pour fermer la connexion
+     */
+    private void gererCommandeQuit() {
+        attendreTransfert();
+        envoyerReponse(CODE_221);
+        String infoClient = utilisateurCourant != null ? utilisateurCourant : socketControle.getInetAddress().toString();
+        JournalFTP.info("Déconnexion du client : ", infoClient);
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Refuse une connexion lorsque le serveur est saturé : répond 421 puis ferme la socket
+     *
+     * @param socketClient Socket de contrôle à refuser
+     */
+    static void refuserConnexion(Socket socketClient) {
+        try {
+            socketClient.getOutputStream().write(REPONSES_ENCODEES.get(CODE_421));
+        } catch (IOException e) {
+            // Le client est déjà parti
+        }
+        fermerSilencieusement(socketClient);
+        JournalFTP.info("Connexion refusée (serveur saturé) : ", socketClient.getInetAddress());
+    }
+
+    /**
+     * Ferme une ressource en ignorant les erreurs
+     *
+     * @param ressource Ressource à fermer (peut être null)
+     */
+    private static void fermerSilencieusement(Closeable ressource) {
+        if (ressource == null) {
+            return;
+        }
+        try {
+            ressource.close();
+        } catch (IOException e) {
+            // Rien à faire
+        }
+    }
+
+    /**
+     * Établit la connexion de données selon le mode configuré (actif ou passif)
+     * La durée de l'établissement sert d'estimation du RTT au réglage de la connexion.
+     *
+     * @return true si la connexion est établie, false sinon
+     */
+    private boolean etablirConnexionDonnees() {
+        if (modeBloc && socketDonnees != null && !socketDonnees.isClosed()) {
+            // Mode bloc : connexion conservée depuis le transfert précédent
+            return true;
+        }
+        reglageDonnees = null;
+        long debut = System.nanoTime();
+        try {
+            if ("actif".equals(modeTransfert)) {
+                // Mode actif : le serveur se connecte au client
+                SocketChannel canal = SocketChannel.open();
+                try {
+                    ReglageTransfert.preparer(canal.socket());
+                    canal.connect(new InetSocketAddress(adresseClientActif, portClientActif));
+                } catch (IOException e) {
+                    canal.close();
+                    throw e;
+                }
+                socketDonnees = canal.socket();
+                JournalFTP.info("Connexion de données établie en mode actif");
+
+            } else if ("passif".equals(modeTransfert) && portEcouteurPartage != 0) {
+                // Mode passif : le serveur attend la connexion du client
+                socketDonnees = ecouteursPassifs.attendre(portEcouteurPartage,
+                    socketControle.getInetAddress(), DELAI_CONNEXION_DONNEES);
+                JournalFTP.info("Connexion de données établie en mode passif (écouteur partagé)");
+
+            } else if ("passif".equals(modeTransfert) && socketServeurPassif != null) {
+                socketDonnees = socketServeurPassif.accept();
+                JournalFTP.info("Connexion de données établie en mode passif");
+
+            } else {
+                return false;
+            }
+        } catch (IOException e) {
+            JournalFTP.erreur("Erreur lors de l'établissement de la connexion de données : ", e.getMessage());
+            return false;
+        }
+        reglageDonnees = new ReglageTransfert(socketDonnees, System.nanoTime() - debut, modeBloc);
+        return true;
+    }
+
+    /**
+     * Indique à l'écouteur partagé que la session ne l'utilise plus
+     */
+    private void relacherEcouteurPartage() {
+        if (portEcouteurPartage != 0) {
+            ecouteursPassifs.relacher(portEcouteurPartage, socketControle.getInetAddress());
+            portEcouteurPartage = 0;
+        }
+    }
+
+    /**
+     * Envoie une réponse au client via la socket de contrôle
+     *
+     * @param reponse Message de réponse à envoyer
+     */
+    private void envoyerReponse(String reponse) {
+        byte[] octets = REPONSES_ENCODEES.get(reponse);
+        if (octets == null) {
+            octets = (reponse + SEPARATEUR_LIGNE).getBytes();
+        }
+
+        synchronized (verrouReponses) {
+            if (longueurReponses + octets.length > tamponReponses.length) {
+                tamponReponses = Arrays.copyOf(tamponReponses,
+                    Math.max(tamponReponses.length * 2, longueurReponses + octets.length));
+            }
+            System.arraycopy(octets, 0, tamponReponses, longueurReponses, octets.length);
+            longueurReponses += octets.length;
+        }
+        JournalFTP.debug("Réponse envoyée : ", reponse);
+    }
+
+    /**
+     * Envoie au client les réponses accumulées, en une seule écriture
+     * Appelée à la fin de chaque commande et avant toute attente bloquante ; au retour,
+     * les réponses ajoutées jusque-là ont été écrites.
+     */
+    private void viderReponses() {
+        do {
+            verrouEcriture.lock();
+            try {
+                ecrireReponses();
+            } finally {
+                verrouEcriture.unlock();
+            }
+        } while (reponsesEnAttente()); // Ajoutées par un thread qui n'a pas obtenu le verrou
+    }
+
+    /**
+     * Envoie les réponses émises hors commande (fin de transfert)
+     * Si un autre thread est en train d'écrire, les réponses lui sont laissées : il les
+     * écrira à la suite des siennes, sans que le thread de transfert attende.
+     */
+    private void viderReponsesSansAttendre() {
+        while (reponsesEnAttente() && verrouEcriture.tryLock()) {
+            try {
+                ecrireReponses();
+            } finally {
+                verrouEcriture.unlock();
+            }
+        }
+    }
+
+    /**
+     * Écrit les réponses accumulées jusqu'à ce qu'il n'y en ait plus
+     * Le tampon plein est échangé sous verrouReponses, puis écrit hors de ce verrou.
+     * Appelée avec verrouEcriture.
+     */
+    private void ecrireReponses() {
+        while (true) {
+            int longueur;
+            synchronized (verrouReponses) {
+                if (longueurReponses == 0) {
+                    return;
+                }
+                byte[] plein = tamponReponses;
+                tamponReponses = tamponEcriture;
+                tamponEcriture = plein;
+                longueur = longueurReponses;
+                longueurReponses = 0;
+            }
+            try {
+                sortieReponses.write(tamponEcriture, 0, longueur);
+                sortieReponses.flush();
+            } catch (IOException e) {
+                // Client déconnecté : la lecture de la prochaine commande le constatera
+                JournalFTP.debug("Réponses non envoyées : ", e.getMessage());
+            }
+            if (tamponEcriture.length > TAILLE_TAMPON_REPONSES_MAX) {
+                tamponEcriture = new byte[TAILLE_TAMPON_REPONSES];
             }
-            if (lecteur != null) {
-                lecteur.close();
+        }
+    }
+
+    /**
+     * Indique s'il reste des réponses à envoyer
+     *
+     * @return true si des réponses attendent dans le tampon
+     */
+    private boolean reponsesEnAttente() {
+        synchronized (verrouReponses) {
+            return longueurReponses > 0;
+        }
+    }
+
+    /**
+     * Enregistre une réponse fixe et son encodage
+     *
+     * @param reponse Texte de la réponse
+     * @return La même réponse, à utiliser comme constante
+     */
+    private static String reponseFixe(String reponse) {
+        REPONSES_ENCODEES.put(reponse, (reponse + SEPARATEUR_LIGNE).getBytes());
+        return reponse;
+    }
+
+    /**
+     * Ferme toutes les connexions et libère les ressources
+     */
+    void fermerConnexions() {
+        // Interrompre un éventuel transfert en cours avant de tout fermer
+        transfertAbandonne = true;
+        synchronized (verrouTransfert) {
+            if (threadTransfert != null) {
+                threadTransfert.interrupt();
             }
-            if (ecrivain != null) {
-                ecrivain.close();
+        }
+        try {
+            if (socketDonnees != null && !socketDonnees.isClosed()) {
+                socketDonnees.close();
             }
+            PORTS_PASSIFS.liberer(socketServeurPassif);
+            socketServeurPassif = null;
+            relacherEcouteurPartage();
+            viderReponses();
             if (socketControle != null && !socketControle.isClosed()) {
                 socketControle.close();
             }
-            System.out.println("[SERVEUR] Connexions fermées");
+            JournalFTP.info("Connexions fermées");
         } catch (IOException e) {
-            System.err.println("[ERREUR] Erreur lors de la fermeture : " + e.getMessage());
+            JournalFTP.erreur("Erreur lors de la fermeture : ", e.getMessage());
         }
     }
 
@@ -664,42 +2135,364 @@ public class ServeurFTP {
      * Point d'entrée du serveur FTP
      * Crée un socket serveur et attend les connexions des clients
      *
-     * @param args Arguments de la ligne de commande (non utilisés)
+     * @param args Options de la ligne de commande (--sans-zero-copie, --nio, --reacteurs N,
+     *             --threads-virtuels, --sessions-max N, --file-attente N,
+     *             --ecouteurs-passifs N, --cache-listes N, --cache-fichiers Mo, --compression 0-9,
+     *             --precompression Ko, --synchronisation aucune|fin|continue, --tampons Ko,
+     *             --journal debug|info|erreur|aucun, --journal-transferts fichier)
      */
     public static void main(String[] args) {
+        analyserOptions(args);
+
+        JournalFTP.configurer(niveauJournal);
+        if (fichierJournalTransferts != null) {
+            try {
+                JournalFTP.journaliserTransfertsDans(fichierJournalTransferts);
+            } catch (IOException e) {
+                System.err.println("[ERREUR] Journal des transferts indisponible : " + e.getMessage());
+            }
+        }
+
         System.out.println("===================================");
         System.out.println("  SERVEUR FTP - TP2 Exercices 1-4");
         System.out.println("===================================");
         System.out.println("Port de contrôle : " + PORT_CONTROLE);
         System.out.println("Répertoire racine : " + REPERTOIRE_RACINE);
         System.out.println("\nUtilisateurs autorisés :");
-        System.out.println("  - anonymous (mot de passe quelconque)");
-        System.out.println("  - foo (mot de passe : bar)");
+        System.out.println("  - anonymous (mot de passe quelconque, lecture seule)");
+        System.out.println("  - foo (mot de passe : bar, lecture et écriture)");
         System.out.println("\nFonctionnalités :");
         System.out.println("  - Authentification (USER/PASS)");
         System.out.println("  - Mode actif (PORT) et passif (PASV)");
-        System.out.println("  - Commandes : LIST, CWD, RETR, QUIT");
+        System.out.println("  - Commandes : LIST, CWD, RETR, REST, SIZE, MRET, STOR, APPE, ALLO, ABOR, NOOP, STAT, MODE (S/B/Z), QUIT");
         System.out.println("  - Gestion des droits par utilisateur");
+        System.out.println("  - RETR sans copie (sendfile) : " + (transfertZeroCopie ? "activé" : "désactivé"));
+        System.out.println("  - Moteur : " + (modeNio ? "événementiel (" + nombreReacteurs + " réacteurs)" : "un thread par client"));
+
+        ExecuteurSessions executeurSessions = creerExecuteur();
+        executeurTransferts = creerExecuteurIllimite();
+        System.out.println("  - Threads : " + (threadsVirtuels ? "virtuels" : "classiques"));
+        System.out.println("  - Sessions simultanées : " + (sessionsMax > 0
+            ? sessionsMax + " (file d'attente : " + (modeNio ? 0 : fileAttenteMax) + ")" : "illimitées"));
+
+        if (nombreEcouteursPassifs > 0) {
+            try {
+                ecouteursPassifs = new EcouteursPassifs(nombreEcouteursPassifs, PORTS_PASSIFS);
+                System.out.println("  - Écouteurs passifs permanents : " + nombreEcouteursPassifs);
+            } catch (IOException e) {
+                JournalFTP.erreur("Écouteurs passifs permanents indisponibles : ", e.getMessage());
+            }
+        }
+
+        if (entreesCacheListes > 0) {
+            try {
+                cacheListes = new CacheListes(entreesCacheListes, OCTETS_CACHE_LISTES);
+                System.out.println("  - Cache des listes : " + entreesCacheListes + " répertoires");
+            } catch (IOException e) {
+                JournalFTP.erreur("Cache des listes indisponible : ", e.getMessage());
+            }
+        }
+        if (megaOctetsCacheFichiers > 0) {
+            cacheFichiers = new CacheFichiers(megaOctetsCacheFichiers * 1024L * 1024, TAILLE_MAX_FICHIER_EN_CACHE);
+            System.out.println("  - Cache des fichiers populaires : " + megaOctetsCacheFichiers + " Mo");
+        }
+        if (koPrecompression > 0) {
+            cachePrecompresse = new CachePrecompresse(Paths.get(REPERTOIRE_RACINE), koPrecompression * 1024L);
+            System.out.println("  - Fichiers précompressés (MODE Z) : à partir de " + koPrecompression + " Ko, dans "
+                + REPERTOIRE_RACINE + "/" + CachePrecompresse.REPERTOIRE_VARIANTES);
+        }
+        System.out.println("  - Compression (MODE Z) : niveau " + ModeCompresse.niveau());
+        System.out.println("  - Synchronisation des téléversements : " + synchronisation.name().toLowerCase());
+        System.out.println("  - Tampons de transfert : " + PoolTampons.tailleParDefaut() / 1024 + " Ko (pool direct partagé)");
+        System.out.println("  - Journal : niveau " + niveauJournal.name().toLowerCase()
+            + (fichierJournalTransferts != null ? ", transferts dans " + fichierJournalTransferts : ""));
         System.out.println("===================================\n");
 
+        if (modeNio) {
+            try {
+                new ReacteurFTP(nombreReacteurs, executeurSessions).demarrer(PORT_CONTROLE);
+            } catch (IOException e) {
+                JournalFTP.erreur("Erreur fatale du serveur : ", e.getMessage());
+                e.printStackTrace();
+            }
+            return;
+        }
+
         try (ServerSocket socketServeur = new ServerSocket(PORT_CONTROLE)) {
-            System.out.println("[SERVEUR] Serveur FTP démarré, en attente de connexions...\n");
+            JournalFTP.info("Serveur FTP démarré, en attente de connexions...\n");
 
             while (true) {
                 // Accepter une connexion client
                 Socket socketClient = socketServeur.accept();
-                System.out.println("[SERVEUR] Nouveau client connecté : " + socketClient.getInetAddress());
+                JournalFTP.info("Nouveau client connecté : ", socketClient.getInetAddress());
 
                 // Créer une instance du serveur pour gérer ce client
                 ServeurFTP serveur = new ServeurFTP(socketClient);
 
-                // Démarrer le traitement dans un nouveau thread (pour supporter plusieurs clients)
-                new Thread(serveur::demarrer).start();
+                // Démarrer le traitement dans un thread dédié (pour supporter plusieurs clients)
+                // Si le serveur est saturé, la connexion est refusée immédiatement
+                if (!executeurSessions.soumettre(serveur::demarrer)) {
+                    refuserConnexion(socketClient);
+                }
             }
 
         } catch (IOException e) {
-            System.err.println("[ERREUR] Erreur fatale du serveur : " + e.getMessage());
+            JournalFTP.erreur("Erreur fatale du serveur : ", e.getMessage());
             e.printStackTrace();
         }
     }
+
+    /**
+     * Analyse les options de la ligne de commande
+     *
+     * @param args Arguments reçus par main
+     */
+    private static void analyserOptions(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            switch (option) {
+                case "--sans-zero-copie":
+                    transfertZeroCopie = false;
+                    break;
+
+                case "--nio":
+                    modeNio = true;
+                    break;
+
+                case "--reacteurs":
+                    nombreReacteurs = Math.max(1, lireEntier(args, ++i, nombreReacteurs));
+                    break;
+
+                case "--threads-virtuels":
+                    threadsVirtuels = true;
+                    break;
+
+                case "--sessions-max":
+                    sessionsMax = Math.max(0, lireEntier(args, ++i, sessionsMax));
+                    break;
+
+                case "--file-attente":
+                    fileAttenteMax = Math.max(0, lireEntier(args, ++i, fileAttenteMax));
+                    break;
+
+                case "--cache-listes":
+                    entreesCacheListes = Math.max(0, lireEntier(args, ++i, entreesCacheListes));
+                    break;
+
+                case "--cache-fichiers":
+                    megaOctetsCacheFichiers = Math.max(0, lireEntier(args, ++i, megaOctetsCacheFichiers));
+                    break;
+
+                case "--ecouteurs-passifs":
+                    nombreEcouteursPassifs = Math.max(0, lireEntier(args, ++i, nombreEcouteursPassifs));
+                    break;
+
+                case "--precompression":
+                    koPrecompression = Math.max(0, lireEntier(args, ++i, koPrecompression));
+                    break;
+
+                case "--compression":
+                    ModeCompresse.configurer(lireEntier(args, ++i, ModeCompresse.NIVEAU_DEFAUT));
+                    break;
+
+                case "--tampons":
+                    PoolTampons.configurer(lireEntier(args, ++i, PoolTampons.tailleParDefaut() / 1024) * 1024);
+                    break;
+
+                case "--synchronisation":
+                    synchronisation = lireSynchronisation(args, ++i, synchronisation);
+                    break;
+
+                case "--journal":
+                    niveauJournal = lireNiveauJournal(args, ++i, niveauJournal);
+                    break;
+
+                case "--journal-transferts":
+                    if (i + 1 < args.length) {
+                        fichierJournalTransferts = args[++i];
+                    } else {
+                        System.err.println("[ERREUR] Valeur manquante pour l'option " + option);
+                    }
+                    break;
+
+                default:
+                    System.err.println("[ERREUR] Option inconnue ignorée : " + option);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Crée l'exécuteur des sessions selon les options
+     * - Sans limite : un thread (virtuel si demandé) par session
+     * - Avec --sessions-max : pool borné avec file d'attente bornée, les sessions
+     *   excédentaires sont refusées (421)
+     * - En mode événementiel, les sessions n'occupent pas de thread : seule la limite
+     *   du nombre de sessions ouvertes s'applique, l'exécuteur traite les commandes
+     *
+     * @return Exécuteur à utiliser pour les sessions
+     */
+    private static ExecuteurSessions creerExecuteur() {
+        if (sessionsMax > 0 && !modeNio) {
+            return new ExecuteurSessions(sessionsMax, fileAttenteMax, creerFabriqueThreads());
+        }
+
+        return new ExecuteurSessions(creerExecuteurIllimite(), sessionsMax);
+    }
+
+    /**
+     * Crée un exécuteur sans limite : un thread virtuel par tâche si demandé
+     * (Executors.newVirtualThreadPerTaskExecutor, Java 21+), sinon un pool de threads classiques
+     *
+     * @return Exécuteur créé
+     */
+    private static ExecutorService creerExecuteurIllimite() {
+        if (threadsVirtuels) {
+            try {
+                // Appel réflexif pour rester compilable avec un JDK antérieur à 21
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                signalerThreadsVirtuelsIndisponibles();
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Crée la fabrique des threads de session : threads virtuels si demandé
+     * (Thread.ofVirtual().factory(), Java 21+), sinon threads classiques.
+     * Le code des sessions ne bloque jamais à l'intérieur d'un bloc synchronized,
+     * les threads virtuels ne restent donc pas épinglés à leur porteur pendant
+     * readLine, accept ou la copie de RETR.
+     *
+     * @return Fabrique de threads
+     */
+    private static ThreadFactory creerFabriqueThreads() {
+        if (threadsVirtuels) {
+            try {
+                Object constructeur = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(constructeur);
+            } catch (ReflectiveOperationException e) {
+                signalerThreadsVirtuelsIndisponibles();
+            }
+        }
+        return Executors.defaultThreadFactory();
+    }
+
+    /**
+     * Signale que les threads virtuels ne sont pas disponibles sur ce JDK
+     */
+    private static void signalerThreadsVirtuelsIndisponibles() {
+        System.err.println("[ERREUR] Threads virtuels indisponibles (Java 21 requis), utilisation de threads classiques");
+        threadsVirtuels = false;
+    }
+
+    /**
+     * Lit la valeur entière d'une option de la ligne de commande
+     *
+     * @param args Arguments reçus par main
+     * @param indice Position de la valeur
+     * @param defaut Valeur retournée si absente ou invalide
+     * @return Valeur lue
+     */
+    private static int lireEntier(String[] args, int indice, int defaut) {
+        if (indice >= args.length) {
+            System.err.println("[ERREUR] Valeur manquante pour l'option " + args[indice - 1]);
+            return defaut;
+        }
+        try {
+            return Integer.parseInt(args[indice]);
+        } catch (NumberFormatException e) {
+            System.err.println("[ERREUR] Valeur invalide pour l'option " + args[indice - 1] + " : " + args[indice]);
+            return defaut;
+        }
+    }
+
+    /**
+     * Lit le niveau du journal donné sur la ligne de commande
+     *
+     * @param args Arguments reçus par main
+     * @param indice Position de la valeur
+     * @param defaut Niveau retourné si absent ou invalide
+     * @return Niveau lu
+     */
+    private static JournalFTP.Niveau lireNiveauJournal(String[] args, int indice, JournalFTP.Niveau defaut) {
+        if (indice >= args.length) {
+            System.err.println("[ERREUR] Valeur manquante pour l'option " + args[indice - 1]);
+            return defaut;
+        }
+        try {
+            return JournalFTP.Niveau.valueOf(args[indice].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ERREUR] Valeur invalide pour l'option " + args[indice - 1] + " : " + args[indice]);
+            return defaut;
+        }
+    }
+
+    /**
+     * Lit la politique de synchronisation donnée sur la ligne de commande
+     *
+     * @param args Arguments reçus par main
+     * @param indice Position de la valeur
+     * @param defaut Politique retournée si absente ou invalide
+     * @return Politique lue
+     */
+    private static Synchronisation lireSynchronisation(String[] args, int indice, Synchronisation defaut) {
+        if (indice >= args.length) {
+            System.err.println("[ERREUR] Valeur manquante pour l'option " + args[indice - 1]);
+            return defaut;
+        }
+        try {
+            return Synchronisation.valueOf(args[indice].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ERREUR] Valeur invalide pour l'option " + args[indice - 1] + " : " + args[indice]);
+            return defaut;
+        }
+    }
+    // ==================== TYPES INTERNES ====================
+
+    /**
+     * Politique de synchronisation sur disque des fichiers téléversés
+     * - AUCUNE : le système écrit les données quand il le décide (le plus rapide)
+     * - FIN : données forcées sur disque avant la réponse 226 et le renommage
+     * - CONTINUE : comme FIN, avec en plus une synchronisation tous les
+     *   OCTETS_ENTRE_SYNCHRONISATIONS octets, pour limiter les pages en attente d'écriture
+     */
+    private enum Synchronisation {
+        AUCUNE, FIN, CONTINUE
+    }
+
+    /**
+     * Envoi de données exécuté sur la connexion de données déjà établie
+     */
+    @FunctionalInterface
+    private interface TransfertDonnees {
+        void executer() throws IOException;
+    }
+
+    /**
+     * Traitement d'une commande de la table
+     */
+    @FunctionalInterface
+    private interface GestionnaireCommande {
+        boolean traiter(ServeurFTP serveur, String argument);
+    }
+
+    /**
+     * Entrée de la table des commandes
+     */
+    private static final class Commande {
+        private final String nom;
+        private final int verbe;
+        private final boolean pendantTransfert;
+        private final GestionnaireCommande gestionnaire;
+
+        Commande(String nom, int verbe, boolean pendantTransfert, GestionnaireCommande gestionnaire) {
+            this.nom = nom;
+            this.verbe = verbe;
+            this.pendantTransfert = pendantTransfert;
+            this.gestionnaire = gestionnaire;
+        }
+    }
 }
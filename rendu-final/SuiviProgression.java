@@ -0,0 +1,253 @@
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SuiviProgression - Progression d'un transfert, publiée à intervalle fixe
+ *
+ * La boucle de transfert se contente de comptabiliser les octets (avancer : une
+ * addition, sans formatage ni écriture). Un thread démon commun à tous les transferts
+ * publie toutes les INTERVALLE_MS un état aux écouteurs : octets transférés, débit
+ * instantané (sur le dernier intervalle), débit moyen depuis le début et temps restant
+ * estimé. Sans écouteur, aucune publication n'est planifiée : le suivi ne coûte que
+ * le comptage.
+ *
+ * Un même suivi peut être alimenté par plusieurs threads (segments de pget).
+ *
+ * @author TP2 - ARSIR Polytech 4A
+ * @version Finale - Exercices 1-4
+ */
+public final class SuiviProgression {
+
+    // ==================== CONSTANTES ====================
+
+    /** Intervalle entre deux publications de l'état */
+    public static final long INTERVALLE_MS = 500;
+
+    /** Affichage de la progression sur la console, sur une seule ligne réécrite */
+    public static final Ecouteur CONSOLE = SuiviProgression::afficher;
+
+    /** Thread démon des publications, créé à la première publication planifiée */
+    private static final ScheduledThreadPoolExecutor PLANIFICATEUR = new ScheduledThreadPoolExecutor(1, tache -> {
+        Thread thread = new Thread(tache, "progression");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        PLANIFICATEUR.setRemoveOnCancelPolicy(true);
+    }
+
+    // ==================== VARIABLES D'INSTANCE ====================
+
+    /** Nom du fichier transféré */
+    private final String nom;
+
+    /** Octets déjà présents avant le transfert (reprise) */
+    private final long dejaPresents;
+
+    /** Taille finale attendue (-1 si inconnue) */
+    private final long total;
+
+    /** Écouteurs notifiés à chaque publication */
+    private final List<Ecouteur> ecouteurs;
+
+    /** Octets transférés depuis le début du suivi */
+    private final LongAdder transferes = new LongAdder();
+
+    /** Début du suivi */
+    private final long debut = System.nanoTime();
+
+    /** Publication périodique (null sans écouteur) */
+    private final ScheduledFuture<?> publication;
+
+    /** Octets transférés et instant de la publication précédente */
+    private long transferesPrecedents;
+    private long instantPrecedent = debut;
+
+    /** Suivi terminé : plus aucune publication */
+    private boolean termine;
+
+    // ==================== CONSTRUCTEUR ====================
+
+    /**
+     * Commence le suivi d'un transfert
+     *
+     * @param nom Nom du fichier transféré
+     * @param dejaPresents Octets déjà présents avant le transfert (reprise), comptés dans la progression
+     * @param total Taille finale attendue (-1 si inconnue)
+     * @param ecouteurs Écouteurs à notifier (liste copiée ; vide : aucune publication)
+     */
+    public SuiviProgression(String nom, long dejaPresents, long total, List<Ecouteur> ecouteurs) {
+        this.nom = nom;
+        this.dejaPresents = dejaPresents;
+        this.total = total;
+        this.ecouteurs = List.copyOf(ecouteurs);
+        this.publication = this.ecouteurs.isEmpty() ? null
+            : PLANIFICATEUR.scheduleAtFixedRate(() -> publier(false), INTERVALLE_MS, INTERVALLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // ==================== MÉTHODES PRINCIPALES ====================
+
+    /**
+     * Comptabilise des octets transférés (appelé par la boucle de transfert)
+     *
+     * @param octets Octets transférés
+     */
+    public void avancer(long octets) {
+        transferes.add(octets);
+    }
+
+    /**
+     * Termine le suivi : la publication périodique est arrêtée et un dernier état est
+     * publié. Aucun écouteur n'est plus notifié après le retour de cette méthode.
+     */
+    public void terminer() {
+        if (publication == null) {
+            return;
+        }
+        publication.cancel(false);
+        publier(true);
+    }
+
+    // ==================== MÉTHODES UTILITAIRES ====================
+
+    /**
+     * Calcule l'état courant et le publie aux écouteurs
+     *
+     * @param fin true pour le dernier état (publié par terminer)
+     */
+    private synchronized void publier(boolean fin) {
+        if (termine) {
+            return;
+        }
+        termine = fin;
+
+        long maintenant = System.nanoTime();
+        long octets = transferes.sum();
+        double debitInstantane = (octets - transferesPrecedents) * 1e9 / Math.max(maintenant - instantPrecedent, 1);
+        double debitMoyen = octets * 1e9 / Math.max(maintenant - debut, 1);
+        transferesPrecedents = octets;
+        instantPrecedent = maintenant;
+
+        long reste = -1;
+        if (total >= 0 && debitInstantane > 0) {
+            reste = (long) (Math.max(total - dejaPresents - octets, 0) * 1e9 / debitInstantane);
+        }
+        Etat etat = new Etat(nom, dejaPresents + octets, total, debitInstantane, debitMoyen, reste, fin);
+        for (Ecouteur ecouteur : ecouteurs) {
+            try {
+                ecouteur.progression(etat);
+            } catch (RuntimeException e) {
+                // Un écouteur défaillant ne doit ni interrompre le transfert ni priver les autres
+                System.err.println("[ERREUR] Écouteur de progression : " + e);
+            }
+        }
+    }
+
+    /**
+     * Écouteur CONSOLE : réécrit la ligne de progression, et la termine au dernier état
+     *
+     * @param etat État publié
+     */
+    private static void afficher(Etat etat) {
+        StringBuilder ligne = new StringBuilder("\r[CLIENT] Progression : ");
+        if (etat.total() > 0) {
+            ligne.append(etat.octets() * 100 / etat.total()).append("% (")
+                .append(etat.octets()).append('/').append(etat.total()).append(" octets)");
+        } else {
+            ligne.append(etat.octets()).append(" octets");
+        }
+        ligne.append(String.format(Locale.ROOT, " - %.1f Mo/s (moyenne %.1f Mo/s)",
+            etat.debitInstantane() / (1024 * 1024), etat.debitMoyen() / (1024 * 1024)));
+        if (!etat.termine() && etat.resteNanos() >= 0) {
+            long secondes = TimeUnit.NANOSECONDS.toSeconds(etat.resteNanos());
+            ligne.append(String.format(Locale.ROOT, " - reste %d:%02d", secondes / 60, secondes % 60));
+        }
+        ligne.append("   "); // Efface la fin d'une ligne précédente plus longue
+        if (etat.termine()) {
+            ligne.append(System.lineSeparator());
+        }
+        System.out.print(ligne);
+        System.out.flush();
+    }
+
+    // ==================== TYPES INTERNES ====================
+
+    /**
+     * Écouteur de la progression des transferts
+     * Appelé depuis le thread de publication, jamais depuis celui du transfert : un
+     * écouteur lent retarde les publications suivantes, pas le transfert.
+     */
+    @FunctionalInterface
+    public interface Ecouteur {
+
+        /**
+         * Reçoit l'état d'un transfert
+         *
+         * @param etat État à l'instant de la publication
+         */
+        void progression(Etat etat);
+    }
+
+    /**
+     * État d'un transfert à l'instant d'une publication
+     */
+    public static final class Etat {
+
+        private final String nom;
+        private final long octets;
+        private final long total;
+        private final double debitInstantane;
+        private final double debitMoyen;
+        private final long resteNanos;
+        private final boolean termine;
+
+        Etat(String nom, long octets, long total, double debitInstantane, double debitMoyen,
+                long resteNanos, boolean termine) {
+            this.nom = nom;
+            this.octets = octets;
+            this.total = total;
+            this.debitInstantane = debitInstantane;
+            this.debitMoyen = debitMoyen;
+            this.resteNanos = resteNanos;
+            this.termine = termine;
+        }
+
+        /** @return Nom du fichier transféré */
+        public String nom() {
+            return nom;
+        }
+
+        /** @return Octets présents (y compris ceux d'avant une reprise) */
+        public long octets() {
+            return octets;
+        }
+
+        /** @return Taille finale attendue (-1 si inconnue) */
+        public long total() {
+            return total;
+        }
+
+        /** @return Débit sur le dernier intervalle (octets/s) */
+        public double debitInstantane() {
+            return debitInstantane;
+        }
+
+        /** @return Débit moyen depuis le début du transfert (octets/s) */
+        public double debitMoyen() {
+            return debitMoyen;
+        }
+
+        /** @return Temps restant estimé au débit instantané (ns), -1 si inconnu */
+        public long resteNanos() {
+            return resteNanos;
+        }
+
+        /** @return true pour le dernier état d'un transfert (terminé ou interrompu) */
+        public boolean termine() {
+            return termine;
+        }
+    }
+}